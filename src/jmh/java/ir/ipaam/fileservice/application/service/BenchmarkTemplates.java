@@ -0,0 +1,49 @@
+package ir.ipaam.fileservice.application.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/** The classpath templates and the sample models shipped next to them. */
+final class BenchmarkTemplates {
+
+    private static final Map<String, String> MODELS = Map.of(
+            "morabehe", "morabehe/morabeh_inputs",
+            "mika_contract", "mika_contract/mika_contract_inputs.json");
+
+    private BenchmarkTemplates() {
+    }
+
+    static String html(String template) {
+        return new String(read(template + "/index.html"), StandardCharsets.UTF_8);
+    }
+
+    static String css(String template) {
+        return new String(read(template + "/style.css"), StandardCharsets.UTF_8);
+    }
+
+    static Map<String, Object> model(String template) {
+        try {
+            return new ObjectMapper().readValue(read(MODELS.get(template)), new TypeReference<>() {
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] read(String path) {
+        try (InputStream in = BenchmarkTemplates.class.getResourceAsStream("/" + path)) {
+            if (in == null) {
+                throw new IllegalStateException("Not on the classpath: " + path);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
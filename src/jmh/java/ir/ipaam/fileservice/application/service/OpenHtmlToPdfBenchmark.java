@@ -0,0 +1,46 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The openhtmltopdf engine end to end on morabehe; mika_contract is not well-formed XHTML,
+ * which this engine rejects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class OpenHtmlToPdfBenchmark {
+
+    private ContractPdfRenderer renderer;
+    private Map<String, Object> model;
+
+    @Setup
+    public void setUp() {
+        RenderProperties properties = new RenderProperties();
+        renderer = new ContractPdfRenderer(new RenderAdmissionController(properties), new ResourceCache(properties));
+        model = BenchmarkTemplates.model(TemplateCatalog.DEFAULT_TEMPLATE);
+    }
+
+    @Benchmark
+    public void render() throws IOException {
+        renderer.render(TemplateCatalog.DEFAULT_TEMPLATE, model, RenderContext.unbounded(), OutputStream.nullOutputStream());
+    }
+}
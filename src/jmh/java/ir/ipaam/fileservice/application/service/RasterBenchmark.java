@@ -0,0 +1,92 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import ir.ipaam.fileservice.domain.model.valueobject.Block;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** The raster engine from a parsed document to PDF bytes, stage by stage and as a whole. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RasterBenchmark {
+
+    @Param({"morabehe", "mika_contract"})
+    public String template;
+
+    private HtmlToPdfService service;
+    private CompiledTemplate compiled;
+    private Map<String, Object> model;
+    private List<Block> blocks;
+    private List<BufferedImage> pages;
+    private BufferedImage page;
+    private Graphics2D g;
+
+    @Setup
+    public void setUp() throws IOException {
+        RenderProperties properties = new RenderProperties();
+        service = new HtmlToPdfService(new RenderAdmissionController(properties), new ResourceCache(properties));
+        compiled = TemplateCatalog.compileFromClasspath(template);
+        model = BenchmarkTemplates.model(template);
+        String xhtml = HtmlToPdfService.renderTemplate(compiled.xhtml(), model);
+        blocks = service.extractBlocks(HtmlToPdfService.parseXhtml(xhtml).getDocumentElement(),
+                compiled.css(), compiled.resolver(), RenderContext.unbounded());
+        pages = service.renderBlocksToPages(blocks, RenderContext.unbounded());
+        // laid out on the same kind of graphics renderBlocksToPages uses
+        page = new BufferedImage(pages.get(0).getWidth(), pages.get(0).getHeight(), BufferedImage.TYPE_INT_RGB);
+        g = GraphicsUtil.createGraphics(page);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public void layoutBlockToLines(Blackhole bh) {
+        for (Block b : blocks) {
+            if (b.image == null) {
+                bh.consume(service.layoutBlockToLines(g, b, HtmlToPdfService.CONTENT_W_IMG));
+            }
+        }
+    }
+
+    @Benchmark
+    public List<BufferedImage> renderBlocksToPages() throws IOException {
+        return service.renderBlocksToPages(blocks, RenderContext.unbounded());
+    }
+
+    @Benchmark
+    public void buildPdfFromJpegs() throws IOException {
+        service.buildPdfFromJpegs(pages, RenderContext.unbounded(), OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void render() {
+        service.render(compiled, model, RenderContext.unbounded(), OutputStream.nullOutputStream());
+    }
+}
@@ -0,0 +1,92 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.util.ArabicTextUtils;
+import ir.ipaam.fileservice.domain.model.valueobject.Style;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** The string and CSS work done before layout: substitution, cleanup, shaping and the cascade. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateBenchmark {
+
+    @Param({"morabehe", "mika_contract"})
+    public String template;
+
+    private String html;
+    private String merged;
+    private String rendered;
+    private Map<String, Object> model;
+    private Document doc;
+    private CssEngine css;
+
+    @Setup
+    public void setUp() {
+        html = BenchmarkTemplates.html(template);
+        model = BenchmarkTemplates.model(template);
+        merged = HtmlToPdfService.mergeHtmlAndCss(html, BenchmarkTemplates.css(template));
+        rendered = HtmlToPdfService.renderTemplate(html, model);
+        doc = HtmlToPdfService.parseXhtml(HtmlToPdfService.fixUnclosedPTags(HtmlToPdfService.sanitizeEntities(merged)));
+        css = CssEngine.from(doc);
+    }
+
+    @Benchmark
+    public String renderTemplate() {
+        return HtmlToPdfService.renderTemplate(html, model);
+    }
+
+    @Benchmark
+    public String sanitizeEntities() {
+        return HtmlToPdfService.sanitizeEntities(merged);
+    }
+
+    @Benchmark
+    public String fixUnclosedPTags() {
+        return HtmlToPdfService.fixUnclosedPTags(merged);
+    }
+
+    @Benchmark
+    public CssEngine cssFrom() {
+        return CssEngine.from(doc);
+    }
+
+    @Benchmark
+    public void cssApply(Blackhole bh) {
+        apply(doc.getDocumentElement(), new Style(), bh);
+    }
+
+    @Benchmark
+    public String shapeArabicText() {
+        return ArabicTextUtils.shapeArabicText(rendered);
+    }
+
+    private void apply(Element el, Style inherited, Blackhole bh) {
+        Style style = css.apply(el, inherited);
+        bh.consume(style);
+        for (Node child = el.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element e) {
+                apply(e, style, bh);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package ir.ipaam.fileservice.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stored results of a run, and the check of a new run against them. Only regressions fail;
+ * timings are compared with {@code tolerance}, heap, allocation and PDF size with
+ * {@code memoryTolerance}, and page hashes must match exactly.
+ */
+record LoadBaseline(int requests, int concurrency, int corpus, Map<String, Result> scenarios) {
+
+    /** One scenario's measurements; page hashes are keyed by corpus index. */
+    record Result(double throughput, double p50Ms, double p99Ms, double p999Ms, long peakHeapBytes,
+                  long allocatedBytesPerRequest, long meanPdfBytes, int errors,
+                  Map<String, List<String>> pageHashes) {
+    }
+
+    private static final ObjectMapper JSON = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    static LoadBaseline read(Path file) throws IOException {
+        return JSON.readValue(file.toFile(), LoadBaseline.class);
+    }
+
+    void write(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        JSON.writeValue(file.toFile(), this);
+    }
+
+    /** Why {@code run} is worse than this baseline; empty when it is not. */
+    List<String> regressions(LoadBaseline run, double tolerance, double memoryTolerance) {
+        List<String> out = new ArrayList<>();
+        if (requests != run.requests || concurrency != run.concurrency || corpus != run.corpus) {
+            out.add("baseline was recorded with requests=" + requests + ", concurrency=" + concurrency
+                    + ", corpus=" + corpus + "; record a new one for these settings");
+            return out;
+        }
+        run.scenarios.forEach((name, now) -> {
+            Result was = scenarios.get(name);
+            if (was == null) {
+                out.add(name + ": not in the baseline");
+                return;
+            }
+            if (now.errors > 0) {
+                out.add(name + ": " + now.errors + " failed requests");
+            }
+            below(out, name, "throughput", was.throughput, now.throughput, tolerance);
+            above(out, name, "p50", was.p50Ms, now.p50Ms, tolerance);
+            above(out, name, "p99", was.p99Ms, now.p99Ms, tolerance);
+            above(out, name, "p999", was.p999Ms, now.p999Ms, tolerance);
+            above(out, name, "peak heap", was.peakHeapBytes, now.peakHeapBytes, memoryTolerance);
+            above(out, name, "allocation per request", was.allocatedBytesPerRequest, now.allocatedBytesPerRequest,
+                    memoryTolerance);
+            above(out, name, "PDF size", was.meanPdfBytes, now.meanPdfBytes, memoryTolerance);
+            below(out, name, "PDF size", was.meanPdfBytes, now.meanPdfBytes, memoryTolerance);
+            was.pageHashes.forEach((index, pages) -> {
+                if (!pages.equals(now.pageHashes.get(index))) {
+                    out.add(name + ": pages of corpus item " + index + " differ from the golden hashes");
+                }
+            });
+        });
+        return out;
+    }
+
+    private static void above(List<String> out, String scenario, String metric, double was, double now, double tolerance) {
+        if (now > was * (1 + tolerance)) {
+            out.add(String.format("%s: %s %.1f is over the baseline %.1f by more than %.0f%%",
+                    scenario, metric, now, was, tolerance * 100));
+        }
+    }
+
+    private static void below(List<String> out, String scenario, String metric, double was, double now, double tolerance) {
+        if (now < was * (1 - tolerance)) {
+            out.add(String.format("%s: %s %.1f is under the baseline %.1f by more than %.0f%%",
+                    scenario, metric, now, was, tolerance * 100));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ir.ipaam.fileservice.load;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The requests of each scenario. Models are the sample inputs shipped with the templates with
+ * their values regenerated from a seed of scenario and index, so every run sends the same
+ * corpus and golden page hashes stay comparable.
+ */
+final class LoadCorpus {
+
+    static final List<String> SCENARIOS = List.of("template", "third-party", "content", "zip");
+
+    private static final String BOUNDARY = "load-harness-boundary";
+    private static final String[] WORDS = {
+            "امیر", "رضا", "زهرا", "مریم", "حسین", "فاطمه", "تهران", "اصفهان", "شیراز", "تبریز",
+            "خیابان", "کوچه", "پلاک", "واحد", "میلیون", "ریال", "ماهانه", "حساب", "شعبه", "مرکزی"};
+
+    private final ObjectMapper json = new ObjectMapper();
+    private final URI base;
+    private final Map<String, Object> morabehe;
+    private final Map<String, Object> mika;
+    private final String mikaHtml;
+    private final String mikaCss;
+    private final byte[] mikaZip;
+
+    LoadCorpus(URI base) {
+        this.base = base;
+        this.morabehe = readModel("morabehe/morabeh_inputs");
+        this.mika = readModel("mika_contract/mika_contract_inputs.json");
+        this.mikaHtml = new String(read("mika_contract/index.html"), StandardCharsets.UTF_8);
+        this.mikaCss = new String(read("mika_contract/style.css"), StandardCharsets.UTF_8);
+        this.mikaZip = read("mika_contract.zip");
+    }
+
+    /** Request {@code index} of {@code scenario}; the same arguments always build the same request. */
+    HttpRequest request(String scenario, int index) {
+        Random random = new Random(31L * scenario.hashCode() + index);
+        return switch (scenario) {
+            case "template" -> post("/pdf", "application/json", toJson(vary(morabehe, random)));
+            case "third-party" -> post("/pdf/by-third-party", "application/json", toJson(vary(morabehe, random)));
+            case "content" -> {
+                Map<String, Object> body = new LinkedHashMap<>();
+                body.put("html", mikaHtml);
+                body.put("css", mikaCss);
+                body.put("model", vary(mika, random));
+                yield post("/pdf/from-content", "application/json", toJson(body));
+            }
+            case "zip" -> post("/pdf/from-zip", "multipart/form-data; boundary=" + BOUNDARY,
+                    multipart(toJson(vary(mika, random))));
+            default -> throw new IllegalArgumentException("Unknown scenario " + scenario + "; known are " + SCENARIOS);
+        };
+    }
+
+    private HttpRequest post(String path, String contentType, byte[] body) {
+        return HttpRequest.newBuilder(base.resolve(path))
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+    }
+
+    // digits keep their length so dates, codes and amounts stay plausible; text is redrawn
+    private static Map<String, Object> vary(Map<String, Object> sample, Random random) {
+        Map<String, Object> model = new LinkedHashMap<>();
+        sample.forEach((key, value) -> {
+            if (!(value instanceof String s) || s.isBlank()) {
+                model.put(key, value);
+            } else if (s.chars().anyMatch(Character::isDigit)) {
+                StringBuilder out = new StringBuilder(s.length());
+                s.chars().forEach(c -> out.append(Character.isDigit(c) ? (char) ('0' + random.nextInt(10)) : (char) c));
+                model.put(key, out.toString());
+            } else {
+                List<String> words = new ArrayList<>();
+                for (int i = 1 + random.nextInt(4); i > 0; i--) {
+                    words.add(WORDS[random.nextInt(WORDS.length)]);
+                }
+                model.put(key, String.join(" ", words));
+            }
+        });
+        return model;
+    }
+
+    private byte[] multipart(byte[] model) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(mikaZip.length + model.length + 512);
+        out.writeBytes(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"mika_contract.zip\"\r\n"
+                + "Content-Type: application/zip\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(mikaZip);
+        out.writeBytes(("\r\n--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"model\"\r\n"
+                + "Content-Type: application/json\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(model);
+        out.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    private byte[] toJson(Object value) {
+        try {
+            return json.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Map<String, Object> readModel(String path) {
+        try {
+            return json.readValue(read(path), new TypeReference<>() {
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] read(String path) {
+        try (InputStream in = LoadCorpus.class.getResourceAsStream("/" + path)) {
+            if (in == null) {
+                throw new IllegalStateException("Not on the classpath: " + path);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package ir.ipaam.fileservice.load;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import ir.ipaam.fileservice.FileserviceApplication;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * End-to-end load and memory regression run. Boots the service in-process on a random port,
+ * with an in-memory H2 database, Axon Server disabled and the result cache off so every
+ * request renders, then drives each scenario of {@link LoadCorpus} with a fixed number of
+ * concurrent clients. Reports throughput, latency percentiles, peak heap, allocation per
+ * request and PDF size, hashes the pages of each corpus item, and exits with status 1 when the
+ * run regresses against the stored {@link LoadBaseline}.
+ * <p>
+ * Peak heap is the largest heap left after a collection, which unlike sampled usage does not
+ * depend on when the collector happened to run. Allocation is counted JVM-wide, so it
+ * includes the HTTP client's share. Timings depend on the machine; record the baseline where
+ * the check runs.
+ * <p>
+ * Options: {@code --requests=N --warmup=N --concurrency=N --corpus=N --scenarios=a,b
+ * --baseline=path --tolerance=0.3 --memory-tolerance=0.15 --write-baseline}
+ */
+public final class LoadHarness {
+
+    private static final Set<String> HEAP_POOLS = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .map(MemoryPoolMXBean::getName)
+            .collect(Collectors.toSet());
+    private static final AtomicLong PEAK_LIVE_HEAP = new AtomicLong();
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private LoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        int requests = Integer.parseInt(options.getOrDefault("requests", "100"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "4"));
+        int corpus = Integer.parseInt(options.getOrDefault("corpus", "10"));
+        List<String> scenarios = options.containsKey("scenarios")
+                ? List.of(options.get("scenarios").split(","))
+                : LoadCorpus.SCENARIOS;
+        Path baselineFile = Path.of(options.getOrDefault("baseline", "src/load/baseline.json"));
+        watchCollections();
+
+        Map<String, LoadBaseline.Result> results = new LinkedHashMap<>();
+        try (ConfigurableApplicationContext app = start()) {
+            int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+            LoadCorpus requestsCorpus = new LoadCorpus(URI.create("http://localhost:" + port));
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            for (String scenario : scenarios) {
+                run(client, requestsCorpus, scenario, warmup, concurrency, corpus, null);
+                results.put(scenario, run(client, requestsCorpus, scenario, requests, concurrency, corpus,
+                        new ConcurrentHashMap<>()));
+            }
+        }
+        report(results);
+
+        LoadBaseline run = new LoadBaseline(requests, concurrency, corpus, results);
+        if (options.containsKey("write-baseline")) {
+            run.write(baselineFile);
+            System.out.println("Baseline written to " + baselineFile);
+            return;
+        }
+        if (!Files.exists(baselineFile)) {
+            System.out.println("No baseline at " + baselineFile + "; record one with --write-baseline");
+            return;
+        }
+        List<String> regressions = LoadBaseline.read(baselineFile).regressions(run,
+                Double.parseDouble(options.getOrDefault("tolerance", "0.3")),
+                Double.parseDouble(options.getOrDefault("memory-tolerance", "0.15")));
+        if (regressions.isEmpty()) {
+            System.out.println("No regressions against " + baselineFile);
+            return;
+        }
+        regressions.forEach(r -> System.out.println("REGRESSION " + r));
+        System.exit(1);
+    }
+
+    private static ConfigurableApplicationContext start() {
+        // as command-line arguments, so they override application.properties
+        return new SpringApplicationBuilder(FileserviceApplication.class).run(
+                "--server.port=0",
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN",
+                "--logging.level.org.springframework=WARN",
+                "--logging.level.ir.ipaam.fileservice=WARN",
+                "--spring.datasource.url=jdbc:h2:mem:load;DATABASE_TO_LOWER=TRUE",
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.jpa.show-sql=false",
+                "--axon.axonserver.enabled=false",
+                "--fileservice.render.cache.enabled=false");
+    }
+
+    // pdfs collects the first response of each corpus item for hashing; null during warm-up
+    private static LoadBaseline.Result run(HttpClient client, LoadCorpus corpus, String scenario, int requests,
+                                           int concurrency, int corpusSize, Map<Integer, byte[]> pdfs)
+            throws Exception {
+        System.gc();
+        PEAK_LIVE_HEAP.set(0);
+
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        AtomicLong pdfBytes = new AtomicLong();
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        long allocatedBefore = THREADS.getTotalThreadAllocatedBytes();
+        long start = System.nanoTime();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int c = 0; c < concurrency; c++) {
+            workers.add(clients.submit(() -> {
+                for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement()) {
+                    int item = i % corpusSize;
+                    long sent = System.nanoTime();
+                    HttpResponse<byte[]> response = client.send(corpus.request(scenario, item),
+                            HttpResponse.BodyHandlers.ofByteArray());
+                    latencies[i] = System.nanoTime() - sent;
+                    if (response.statusCode() != 200) {
+                        errors.incrementAndGet();
+                        continue;
+                    }
+                    pdfBytes.addAndGet(response.body().length);
+                    if (pdfs != null) {
+                        pdfs.putIfAbsent(item, response.body());
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = THREADS.getTotalThreadAllocatedBytes() - allocatedBefore;
+        clients.shutdown();
+
+        Arrays.sort(latencies);
+        Map<String, List<String>> pageHashes = new TreeMap<>();
+        if (pdfs != null) {
+            for (Map.Entry<Integer, byte[]> pdf : pdfs.entrySet()) {
+                pageHashes.put(String.valueOf(pdf.getKey()), pageHashes(pdf.getValue()));
+            }
+        }
+        int ok = Math.max(1, requests - errors.get());
+        return new LoadBaseline.Result(
+                requests / (elapsed / 1e9),
+                percentile(latencies, 0.50),
+                percentile(latencies, 0.99),
+                percentile(latencies, 0.999),
+                PEAK_LIVE_HEAP.get(),
+                allocated / requests,
+                pdfBytes.get() / ok,
+                errors.get(),
+                pageHashes);
+    }
+
+    private static void watchCollections() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    return;
+                }
+                Map<String, MemoryUsage> after = GarbageCollectionNotificationInfo
+                        .from((CompositeData) notification.getUserData()).getGcInfo().getMemoryUsageAfterGc();
+                long live = after.entrySet().stream()
+                        .filter(pool -> HEAP_POOLS.contains(pool.getKey()))
+                        .mapToLong(pool -> pool.getValue().getUsed())
+                        .sum();
+                PEAK_LIVE_HEAP.accumulateAndGet(live, Math::max);
+            }, null, null);
+        }
+    }
+
+    private static double percentile(long[] sorted, double q) {
+        int index = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    // content streams and images of each page; metadata, dates and document ids are left out
+    private static List<String> pageHashes(byte[] pdf) throws IOException {
+        List<String> hashes = new ArrayList<>();
+        try (PDDocument doc = PDDocument.load(pdf)) {
+            for (PDPage page : doc.getPages()) {
+                MessageDigest digest = sha256();
+                try (InputStream in = page.getContents()) {
+                    if (in != null) {
+                        digest.update(in.readAllBytes());
+                    }
+                }
+                PDResources resources = page.getResources();
+                if (resources != null) {
+                    for (COSName name : resources.getXObjectNames()) {
+                        PDXObject xObject = resources.getXObject(name);
+                        try (InputStream in = xObject.getStream().createInputStream()) {
+                            digest.update(in.readAllBytes());
+                        }
+                    }
+                }
+                hashes.add(HexFormat.of().formatHex(digest.digest()));
+            }
+        }
+        return hashes;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void report(Map<String, LoadBaseline.Result> results) {
+        System.out.printf("%-12s %9s %9s %9s %9s %10s %12s %10s %6s%n",
+                "scenario", "req/s", "p50 ms", "p99 ms", "p999 ms", "peak MB", "alloc/req MB", "pdf KB", "errors");
+        results.forEach((name, r) -> System.out.printf("%-12s %9.2f %9.1f %9.1f %9.1f %10.1f %12.1f %10.1f %6d%n",
+                name, r.throughput(), r.p50Ms(), r.p99Ms(), r.p999Ms(), r.peakHeapBytes() / 1048576.0,
+                r.allocatedBytesPerRequest() / 1048576.0, r.meanPdfBytes() / 1024.0, r.errors()));
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "" : arg.substring(eq + 1));
+        }
+        return options;
+    }
+}
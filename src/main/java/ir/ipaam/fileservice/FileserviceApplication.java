@@ -2,8 +2,10 @@ package ir.ipaam.fileservice;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 @SpringBootApplication
+@ConfigurationPropertiesScan
 public class FileserviceApplication {
 public static void main(String[] args) {
 SpringApplication.run(FileserviceApplication.class, args);
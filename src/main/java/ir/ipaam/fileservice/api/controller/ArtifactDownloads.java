@@ -0,0 +1,106 @@
+package ir.ipaam.fileservice.api.controller;
+
+import ir.ipaam.fileservice.domain.model.PdfArtifact;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes an artifact file to the response with {@link FileChannel#transferTo}, honouring a
+ * single-range {@code Range} header. The file is never loaded onto the heap.
+ */
+final class ArtifactDownloads {
+
+    private static final Pattern SINGLE_RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    private ArtifactDownloads() {
+    }
+
+    static void write(PdfArtifact artifact, Path file, String fileName,
+                      HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // opened before any header is set, so a blob this instance cannot read is a plain 404
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+                    "Artifact " + artifact.getSha256() + " is not in this instance's store");
+        }
+        try (channel) {
+            write(artifact, channel, fileName, request, response);
+        }
+    }
+
+    private static void write(PdfArtifact artifact, FileChannel channel, String fileName,
+                              HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long size = artifact.getSizeBytes();
+        String etag = "\"" + artifact.getSha256() + "\"";
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setContentType(artifact.getContentType());
+        if (fileName != null) {
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                    .filename(fileName, StandardCharsets.UTF_8)
+                    .build()
+                    .toString());
+        }
+
+        long start = 0;
+        long end = size - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        // malformed or multi-range requests and stale If-Range validators get the whole file
+        Matcher m = range != null ? SINGLE_RANGE.matcher(range.trim()) : null;
+        if (m != null && m.matches() && !(m.group(1).isEmpty() && m.group(2).isEmpty())
+                && (ifRange == null || ifRange.equals(etag))) {
+            String first = m.group(1);
+            String last = m.group(2);
+            if (first.isEmpty()) {                           // bytes=-N: the last N bytes
+                start = Math.max(0, size - Long.parseLong(last));
+            } else {
+                start = Long.parseLong(first);
+                if (!last.isEmpty()) {
+                    end = Math.min(end, Long.parseLong(last));
+                }
+            }
+            if (start >= size || start > end) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        } else {
+            response.setStatus(HttpStatus.OK.value());
+        }
+
+        long length = end - start + 1;
+        response.setContentLengthLong(length);
+        WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+        long position = start;
+        long remaining = length;
+        while (remaining > 0) {
+            long sent = channel.transferTo(position, remaining, target);
+            if (sent <= 0) {
+                throw new IOException("Artifact " + artifact.getSha256() + " is shorter than recorded");
+            }
+            position += sent;
+            remaining -= sent;
+        }
+    }
+}
@@ -1,45 +1,93 @@
 package ir.ipaam.fileservice.api.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.ConstraintViolation;
 import jakarta.validation.Valid;
+import jakarta.validation.Validator;
 import lombok.RequiredArgsConstructor;
 import org.axonframework.commandhandling.gateway.CommandGateway;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncUtils;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import ir.ipaam.fileservice.api.dto.ContractRequest;
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import ir.ipaam.fileservice.application.service.InvalidPreviewException;
+import ir.ipaam.fileservice.application.service.PagePreview;
+import ir.ipaam.fileservice.application.service.RenderProfile;
+import ir.ipaam.fileservice.application.service.RenderProfiler;
+import ir.ipaam.fileservice.application.service.RenderRejectedException;
+import ir.ipaam.fileservice.application.service.ZipBundle;
+import ir.ipaam.fileservice.application.service.ZipIngestor;
+import ir.ipaam.fileservice.domain.command.GeneratePdfBatchCommand;
 import ir.ipaam.fileservice.domain.command.GeneratePdfFromContentCommand;
 import ir.ipaam.fileservice.domain.command.GeneratePdfFromFolderCommand;
+import ir.ipaam.fileservice.domain.command.GeneratePdfFromRegisteredTemplateCommand;
 import ir.ipaam.fileservice.domain.command.GeneratePdfFromTemplateCommand;
 import ir.ipaam.fileservice.domain.command.GeneratePdfFromThirdPartyCommand;
 import ir.ipaam.fileservice.domain.command.GeneratePdfFromZipCommand;
+import ir.ipaam.fileservice.domain.command.GeneratePreviewFromTemplateCommand;
+import ir.ipaam.fileservice.domain.command.GeneratePreviewFromThirdPartyCommand;
 import ir.ipaam.fileservice.domain.dto.PdfGenerationResult;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/pdf")
 @RequiredArgsConstructor
 public class HtmlToPdfController {
 
+    private static final MediaType APPLICATION_ZIP = MediaType.parseMediaType("application/zip");
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
     private final CommandGateway commandGateway;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final ZipIngestor zipIngestor;
+    private final RenderProfiler renderProfiler;
+    private final RenderProperties renderProperties;
 
     @PostMapping(produces = MediaType.APPLICATION_PDF_VALUE)
-    public ResponseEntity<byte[]> generate(@Valid @RequestBody Map<String, Object> model) throws Exception {
-        PdfGenerationResult result = commandGateway.sendAndWait(new GeneratePdfFromTemplateCommand(model));
-        return buildPdfResponse(result);
+    @Operation(summary = "Render a template shipped with the service (morabehe, mika_contract)")
+    public ResponseEntity<StreamingResponseBody> generate(
+            @Valid @RequestBody Map<String, Object> model,
+            @RequestParam(value = "template", required = false) String template,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = RenderProfiler.HEADER, required = false) String profile
+    ) throws Exception {
+        PdfGenerationResult result = commandGateway.sendAndWait(new GeneratePdfFromTemplateCommand(template, model));
+        return buildPdfResponse(result, ifNoneMatch, profile);
     }
 
     @PostMapping(
@@ -47,35 +95,75 @@ public class HtmlToPdfController {
             produces = MediaType.APPLICATION_PDF_VALUE
     )
     @Operation(summary = "Generate PDF from local folder (HTML + CSS + fonts + images)")
-    public ResponseEntity<byte[]> generateFromFolder(
+    public ResponseEntity<StreamingResponseBody> generateFromFolder(
             @RequestParam("folderPath") String folderPath,
-            @Valid @RequestBody Map<String, Object> model
+            @Valid @RequestBody Map<String, Object> model,
+            @RequestHeader(value = RenderProfiler.HEADER, required = false) String profile
     ) throws Exception {
         PdfGenerationResult result = commandGateway.sendAndWait(
                 new GeneratePdfFromFolderCommand(folderPath, model)
         );
-        return buildPdfResponse(result);
+        return buildPdfResponse(result, null, profile);
     }
 
     @PostMapping(value = "/by-third-party", produces = MediaType.APPLICATION_PDF_VALUE)
-    public ResponseEntity<byte[]> morabaha(@Valid @RequestBody ContractRequest req) throws Exception {
+    public ResponseEntity<StreamingResponseBody> morabaha(
+            @Valid @RequestBody ContractRequest req,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = RenderProfiler.HEADER, required = false) String profile
+    ) throws Exception {
         PdfGenerationResult result = commandGateway.sendAndWait(
                 new GeneratePdfFromThirdPartyCommand(req)
         );
-        return buildPdfResponse(result);
+        return buildPdfResponse(result, ifNoneMatch, profile);
+    }
+
+    @PostMapping(value = "/preview", produces = {MediaType.IMAGE_PNG_VALUE, "application/zip", MediaType.APPLICATION_PDF_VALUE})
+    @Operation(summary = "Preview pages of a template shipped with the service as PNG (a ZIP for several pages) or as a PDF of those pages")
+    public ResponseEntity<StreamingResponseBody> preview(
+            @Valid @RequestBody Map<String, Object> model,
+            @RequestParam(value = "template", required = false) String template,
+            @RequestParam(value = "pages", required = false) String pages,
+            @RequestParam(value = "format", required = false) String format,
+            @RequestParam(value = "dpi", required = false) Integer dpi,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) throws Exception {
+        PagePreview preview = PagePreview.parse(pages, format, dpi, renderProperties.getPreview());
+        PdfGenerationResult result = commandGateway.sendAndWait(
+                new GeneratePreviewFromTemplateCommand(template, model, preview)
+        );
+        return buildPreviewResponse(result, ifNoneMatch, preview);
+    }
+
+    @PostMapping(value = "/by-third-party/preview", produces = {MediaType.IMAGE_PNG_VALUE, "application/zip", MediaType.APPLICATION_PDF_VALUE})
+    @Operation(summary = "Preview pages of the third-party contract, page 1 as a PNG by default")
+    public ResponseEntity<StreamingResponseBody> morabahaPreview(
+            @Valid @RequestBody ContractRequest req,
+            @RequestParam(value = "pages", required = false) String pages,
+            @RequestParam(value = "format", required = false) String format,
+            @RequestParam(value = "dpi", required = false) Integer dpi,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) throws Exception {
+        PagePreview preview = PagePreview.parse(pages, format, dpi, renderProperties.getPreview());
+        PdfGenerationResult result = commandGateway.sendAndWait(
+                new GeneratePreviewFromThirdPartyCommand(req, preview)
+        );
+        return buildPreviewResponse(result, ifNoneMatch, preview);
     }
 
     public record PdfRequest(String html, String css, Map<String, Object> model) {
     }
 
     @PostMapping(value = "/from-content", produces = MediaType.APPLICATION_PDF_VALUE)
-    public ResponseEntity<byte[]> generateFromContent(
-            @RequestBody PdfRequest request
+    public ResponseEntity<StreamingResponseBody> generateFromContent(
+            @RequestBody PdfRequest request,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = RenderProfiler.HEADER, required = false) String profile
     ) throws Exception {
         PdfGenerationResult result = commandGateway.sendAndWait(
                 new GeneratePdfFromContentCommand(request.html(), request.css(), request.model())
         );
-        return buildPdfResponse(result);
+        return buildPdfResponse(result, ifNoneMatch, profile);
     }
 
     @PostMapping(
@@ -84,33 +172,243 @@ public class HtmlToPdfController {
             produces = MediaType.APPLICATION_PDF_VALUE
     )
     @Operation(summary = "Generate PDF from ZIP containing HTML, CSS, images, fonts")
-    public ResponseEntity<ByteArrayResource> generateFromZip(
+    public ResponseEntity<StreamingResponseBody> generateFromZip(
             @RequestPart("file") MultipartFile zipFile,
-            @RequestPart("model") String modelJson
+            @RequestPart("model") String modelJson,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = RenderProfiler.HEADER, required = false) String profile
+    ) throws Exception {
+        // entries are read from the part's stream; large assets go to the scratch area, not the heap
+        ZipBundle bundle = zipIngestor.ingest(zipFile.getInputStream());
+        PdfGenerationResult result;
+        try {
+            result = commandGateway.sendAndWait(new GeneratePdfFromZipCommand(bundle, modelJson));
+        } catch (RuntimeException e) {
+            bundle.close();
+            throw e;
+        }
+        if (isNotModified(result, ifNoneMatch)) {
+            bundle.close();
+        }
+        return buildPdfResponse(result.closingAfterWrite(bundle), ifNoneMatch, profile);
+    }
+
+    @PostMapping(value = "/templates/{id}", produces = MediaType.APPLICATION_PDF_VALUE)
+    @Operation(summary = "Render a template registered with POST /pdf/templates; the body is only the model")
+    public ResponseEntity<StreamingResponseBody> generateFromRegisteredTemplate(
+            @PathVariable String id,
+            @RequestBody Map<String, Object> model,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = RenderProfiler.HEADER, required = false) String profile
     ) throws Exception {
         PdfGenerationResult result = commandGateway.sendAndWait(
-                new GeneratePdfFromZipCommand(zipFile.getBytes(), modelJson)
+                new GeneratePdfFromRegisteredTemplateCommand(id, model)
         );
-        return buildByteArrayResourceResponse(result);
+        return buildPdfResponse(result, ifNoneMatch, profile);
     }
 
-    private ResponseEntity<byte[]> buildPdfResponse(PdfGenerationResult result) {
-        ContentDisposition contentDisposition = ContentDisposition.attachment()
-                .filename(result.fileName(), StandardCharsets.UTF_8)
-                .build();
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentDisposition(contentDisposition);
-        headers.setContentType(MediaType.APPLICATION_PDF);
-        return new ResponseEntity<>(result.pdfBytes(), headers, HttpStatus.OK);
+    @PostMapping(
+            value = "/batch",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = {"application/zip", MediaType.APPLICATION_PDF_VALUE}
+    )
+    @Operation(summary = "Render many contracts against one shared template as a ZIP of PDFs or one merged PDF (output=zip|pdf)")
+    public ResponseEntity<StreamingResponseBody> batch(
+            @RequestBody List<ContractRequest> requests,
+            @RequestParam(value = "output", defaultValue = "zip") String output,
+            HttpServletRequest servletRequest
+    ) throws Exception {
+        return renderBatch(requests, output, servletRequest);
+    }
+
+    @PostMapping(
+            value = "/batch",
+            consumes = APPLICATION_NDJSON_VALUE,
+            produces = {"application/zip", MediaType.APPLICATION_PDF_VALUE}
+    )
+    @Operation(summary = "Render one contract per NDJSON line as a ZIP of PDFs or one merged PDF (output=zip|pdf)")
+    public ResponseEntity<StreamingResponseBody> batchNdjson(
+            InputStream body,
+            @RequestParam(value = "output", defaultValue = "zip") String output,
+            HttpServletRequest servletRequest
+    ) throws Exception {
+        List<ContractRequest> requests = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.isBlank()) {
+                requests.add(objectMapper.readValue(line, ContractRequest.class));
+                // stop reading as soon as the batch is too large
+                requireBatchSize(requests.size());
+            }
+        }
+        return renderBatch(requests, output, servletRequest);
+    }
+
+    private ResponseEntity<StreamingResponseBody> renderBatch(List<ContractRequest> requests, String output,
+                                                              HttpServletRequest servletRequest) {
+        if (requests == null || requests.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Batch contains no requests");
+        }
+        requireBatchSize(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            Set<ConstraintViolation<ContractRequest>> violations = validator.validate(requests.get(i));
+            if (!violations.isEmpty()) {
+                ConstraintViolation<ContractRequest> v = violations.iterator().next();
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "requests[" + i + "]." + v.getPropertyPath() + ": " + v.getMessage());
+            }
+        }
+
+        boolean merged = "pdf".equalsIgnoreCase(output);
+        PdfGenerationResult result = commandGateway.sendAndWait(new GeneratePdfBatchCommand(requests, merged));
+        extendAsyncTimeout(servletRequest, requests.size());
+        return buildFileResponse(result, merged ? MediaType.APPLICATION_PDF : APPLICATION_ZIP);
+    }
+
+    private void requireBatchSize(int documents) {
+        int max = renderProperties.getBatch().getMaxItems();
+        if (documents > max) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "A batch has at most " + max + " requests (fileservice.render.batch.max-items)");
+        }
+    }
+
+    // spring.mvc.async.request-timeout fits one render; a batch gets one render timeout per round
+    // of parallel documents plus one for the merge or ZIP, up to batch.max-duration
+    private void extendAsyncTimeout(HttpServletRequest servletRequest, int documents) {
+        Duration timeout = renderProperties.getTimeout();
+        if (timeout == null || timeout.isZero() || timeout.isNegative()) {
+            return;
+        }
+        int parallelism = Math.max(1, renderProperties.getBatch().getParallelism());
+        long rounds = (documents + parallelism - 1) / parallelism + 1;
+        Duration batchTimeout = timeout.multipliedBy(rounds);
+        Duration max = renderProperties.getBatch().getMaxDuration();
+        if (max != null && batchTimeout.compareTo(max) > 0) {
+            batchTimeout = max;
+        }
+        AsyncWebRequest asyncRequest = WebAsyncUtils.getAsyncManager(servletRequest).getAsyncWebRequest();
+        if (asyncRequest != null) {
+            asyncRequest.setTimeout(batchTimeout.toMillis());
+        }
+    }
+
+    private ResponseEntity<StreamingResponseBody> buildPdfResponse(PdfGenerationResult result, String ifNoneMatch,
+                                                                   String profile) throws IOException {
+        if (isNotModified(result, ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(result.etag()).build();
+        }
+        if (profile != null && renderProfiler.isEnabled()) {
+            return buildProfiledResponse(result, profile);
+        }
+        return buildFileResponse(result, MediaType.APPLICATION_PDF);
+    }
+
+    private ResponseEntity<StreamingResponseBody> buildPreviewResponse(PdfGenerationResult result, String ifNoneMatch,
+                                                                       PagePreview preview) {
+        if (isNotModified(result, ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(result.etag()).build();
+        }
+        MediaType contentType = switch (preview.format()) {
+            case PDF -> MediaType.APPLICATION_PDF;
+            case PNG -> preview.zipped() ? APPLICATION_ZIP : MediaType.IMAGE_PNG;
+        };
+        return buildFileResponse(result, contentType);
+    }
+
+    // A preview asking only for pages past the end of the document fails once it renders, after
+    // the image or PDF headers are set; the error page cannot be written under those
+    @ExceptionHandler(InvalidPreviewException.class)
+    public ResponseEntity<ProblemDetail> invalidPreview(InvalidPreviewException e, HttpServletResponse response) {
+        if (!response.isCommitted()) {
+            response.reset();
+        }
+        return ResponseEntity.badRequest()
+                .contentType(MediaType.APPLICATION_PROBLEM_JSON)
+                .body(ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, e.getMessage()));
+    }
+
+    // The same holds for an async timeout; its renders have been cancelled by then
+    @ExceptionHandler(AsyncRequestTimeoutException.class)
+    public ResponseEntity<ProblemDetail> asyncTimeout(AsyncRequestTimeoutException e, HttpServletResponse response) {
+        if (!response.isCommitted()) {
+            response.reset();
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .contentType(MediaType.APPLICATION_PROBLEM_JSON)
+                .body(ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, "Render timed out"));
+    }
+
+    // And for a body no writer thread could take, or a render the admission budget turned away
+    @ExceptionHandler(RenderRejectedException.class)
+    public ResponseEntity<ProblemDetail> renderRejected(RenderRejectedException e, HttpServletResponse response) {
+        if (!response.isCommitted()) {
+            response.reset();
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .contentType(MediaType.APPLICATION_PROBLEM_JSON)
+                .body(ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage()));
+    }
+
+    // Renders before answering, so the stage timings can go in a header or replace the PDF
+    private ResponseEntity<StreamingResponseBody> buildProfiledResponse(PdfGenerationResult result, String mode)
+            throws IOException {
+        if (!mode.equals("timing") && !mode.equals("json")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    RenderProfiler.HEADER + " must be timing or json");
+        }
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        RenderProfile renderProfile = renderProfiler.profile(result, pdf);
+        if (mode.equals("json")) {
+            byte[] json = objectMapper.writeValueAsBytes(renderProfiler.report(renderProfile, pdf.size()));
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(out -> out.write(json));
+        }
+        PdfGenerationResult rendered = new PdfGenerationResult(result.fileName(), pdf.toByteArray(), result.etag());
+        HttpHeaders headers = fileHeaders(rendered, MediaType.APPLICATION_PDF);
+        headers.set("Server-Timing", renderProfile.serverTiming());
+        return new ResponseEntity<>(rendered::writeTo, headers, HttpStatus.OK);
+    }
+
+    // Weak comparison as in RFC 9110 13.1.2; the ETag is the render's content hash
+    private static boolean isNotModified(PdfGenerationResult result, String ifNoneMatch) {
+        if (result.etag() == null || ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String candidate = tag.trim();
+            if (candidate.equals("*")) {
+                return true;
+            }
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("\"" + result.etag() + "\"")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The body renders into the servlet output stream: Content-Length when the bytes
+    // already exist (cache hit), chunked otherwise
+    private ResponseEntity<StreamingResponseBody> buildFileResponse(PdfGenerationResult result, MediaType contentType) {
+        return new ResponseEntity<>(result::writeTo, fileHeaders(result, contentType), HttpStatus.OK);
     }
 
-    private ResponseEntity<ByteArrayResource> buildByteArrayResourceResponse(PdfGenerationResult result) {
+    private static HttpHeaders fileHeaders(PdfGenerationResult result, MediaType contentType) {
         ContentDisposition contentDisposition = ContentDisposition.attachment()
                 .filename(result.fileName(), StandardCharsets.UTF_8)
                 .build();
         HttpHeaders headers = new HttpHeaders();
         headers.setContentDisposition(contentDisposition);
-        headers.setContentType(MediaType.APPLICATION_PDF);
-        return new ResponseEntity<>(new ByteArrayResource(result.pdfBytes()), headers, HttpStatus.OK);
+        headers.setContentType(contentType);
+        if (result.etag() != null) {
+            headers.setETag("\"" + result.etag() + "\"");
+        }
+        if (result.contentLength() != null) {
+            headers.setContentLength(result.contentLength());
+        }
+        return headers;
     }
 }
@@ -0,0 +1,34 @@
+package ir.ipaam.fileservice.api.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import ir.ipaam.fileservice.application.service.PdfArtifactStore;
+import ir.ipaam.fileservice.domain.model.PdfArtifact;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+
+@RestController
+@RequestMapping("/pdf/artifacts")
+@RequiredArgsConstructor
+public class PdfArtifactController {
+
+    private final PdfArtifactStore artifactStore;
+
+    @GetMapping("/{sha256}")
+    @Operation(summary = "Download a stored artifact by its SHA-256; supports Range requests")
+    public void download(@PathVariable String sha256,
+                         HttpServletRequest request,
+                         HttpServletResponse response) throws IOException {
+        PdfArtifact artifact = artifactStore.find(sha256)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown artifact " + sha256));
+        ArtifactDownloads.write(artifact, artifactStore.path(sha256), null, request, response);
+    }
+}
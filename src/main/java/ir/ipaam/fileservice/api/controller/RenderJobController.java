@@ -0,0 +1,124 @@
+package ir.ipaam.fileservice.api.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import ir.ipaam.fileservice.api.dto.ContractRequest;
+import ir.ipaam.fileservice.api.dto.RenderJobResponse;
+import ir.ipaam.fileservice.application.service.PdfArtifactStore;
+import ir.ipaam.fileservice.application.service.RenderJobService;
+import ir.ipaam.fileservice.domain.command.GeneratePdfFromContentCommand;
+import ir.ipaam.fileservice.domain.command.GeneratePdfFromTemplateCommand;
+import ir.ipaam.fileservice.domain.command.GeneratePdfFromThirdPartyCommand;
+import ir.ipaam.fileservice.domain.model.PdfArtifact;
+import ir.ipaam.fileservice.domain.model.RenderJob;
+import ir.ipaam.fileservice.domain.model.RenderJobStatus;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/pdf/jobs")
+@RequiredArgsConstructor
+public class RenderJobController {
+
+    private final RenderJobService jobService;
+    private final PdfArtifactStore artifactStore;
+
+    @PostMapping
+    @Operation(summary = "Queue a render of a built-in template; poll the returned job for the PDF")
+    public ResponseEntity<RenderJobResponse> submit(@Valid @RequestBody Map<String, Object> model,
+                                                    @RequestParam(value = "template", required = false) String template) {
+        return accepted(jobService.submit(new GeneratePdfFromTemplateCommand(template, model)));
+    }
+
+    @PostMapping("/by-third-party")
+    @Operation(summary = "Queue a Morabaha contract render")
+    public ResponseEntity<RenderJobResponse> submitThirdParty(@Valid @RequestBody ContractRequest req) {
+        return accepted(jobService.submit(new GeneratePdfFromThirdPartyCommand(req)));
+    }
+
+    @PostMapping("/from-content")
+    @Operation(summary = "Queue a render of inline HTML and CSS")
+    public ResponseEntity<RenderJobResponse> submitContent(@RequestBody HtmlToPdfController.PdfRequest request) {
+        return accepted(jobService.submit(
+                new GeneratePdfFromContentCommand(request.html(), request.css(), request.model())
+        ));
+    }
+
+    @GetMapping("/{id}")
+    @Operation(summary = "Job status, timings and outcome")
+    public RenderJobResponse status(@PathVariable String id) {
+        RenderJob job = findJob(id);
+        requireOutput(job);
+        return RenderJobResponse.from(job);
+    }
+
+    @GetMapping("/{id}/file")
+    @Operation(summary = "Download the PDF of a finished job; supports Range requests")
+    public void download(@PathVariable String id,
+                         HttpServletRequest request,
+                         HttpServletResponse response) throws IOException {
+        RenderJob job = findJob(id);
+        if (job.getStatus() != RenderJobStatus.SUCCEEDED) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Job " + id + " is " + job.getStatus());
+        }
+        requireOutput(job);
+        // the output was readable a moment ago; it can still be removed meanwhile
+        PdfArtifact artifact = artifactStore.find(job.getArtifactSha256())
+                .orElseThrow(() -> gone(job));
+        ArtifactDownloads.write(artifact, artifactStore.path(artifact.getSha256()), job.getFileName(), request, response);
+    }
+
+    @PostMapping("/{id}/render")
+    @Operation(summary = "Queue a succeeded job whose output is gone for another render")
+    public ResponseEntity<RenderJobResponse> rerender(@PathVariable String id) {
+        RenderJob job = findJob(id);
+        if (job.getStatus() != RenderJobStatus.SUCCEEDED) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Job " + id + " is " + job.getStatus());
+        }
+        if (jobService.isServable(job)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Output of job " + id + " is available");
+        }
+        return accepted(jobService.rerender(job));
+    }
+
+    private RenderJob findJob(String id) {
+        return jobService.find(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown job " + id));
+    }
+
+    // A succeeded job whose output this instance cannot read is not reported as succeeded
+    private void requireOutput(RenderJob job) {
+        if (job.getStatus() == RenderJobStatus.SUCCEEDED && !jobService.isServable(job)) {
+            throw gone(job);
+        }
+    }
+
+    private static ResponseStatusException gone(RenderJob job) {
+        return new ResponseStatusException(HttpStatus.GONE, "Output of job " + job.getId()
+                + " is gone; POST /pdf/jobs/" + job.getId() + "/render to render it again");
+    }
+
+    private static ResponseEntity<RenderJobResponse> accepted(RenderJob job) {
+        URI location = ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/pdf/jobs/{id}")
+                .buildAndExpand(job.getId())
+                .toUri();
+        return ResponseEntity.accepted().location(location).body(RenderJobResponse.from(job));
+    }
+}
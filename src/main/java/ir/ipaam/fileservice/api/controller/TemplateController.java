@@ -0,0 +1,68 @@
+package ir.ipaam.fileservice.api.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import ir.ipaam.fileservice.api.dto.TemplateResponse;
+import ir.ipaam.fileservice.application.service.TemplateRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+@RestController
+@RequestMapping("/pdf/templates")
+@RequiredArgsConstructor
+public class TemplateController {
+
+    private final TemplateRegistry templateRegistry;
+
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @Operation(summary = "Register a ZIP of HTML, CSS and images; render it later with POST /pdf/templates/{id}")
+    public ResponseEntity<TemplateResponse> register(@RequestPart("file") MultipartFile zipFile) throws IOException {
+        try (InputStream in = zipFile.getInputStream()) {
+            return registered(templateRegistry.register(in));
+        }
+    }
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Register inline HTML and CSS (the model of the request body is ignored)")
+    public ResponseEntity<TemplateResponse> registerContent(@RequestBody HtmlToPdfController.PdfRequest request)
+            throws IOException {
+        if (request.html() == null || request.html().isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "HTML content is empty");
+        }
+        return registered(templateRegistry.register(request.html(), request.css()));
+    }
+
+    @GetMapping("/{id}")
+    @Operation(summary = "Compile status of a registered template")
+    public TemplateResponse status(@PathVariable String id) {
+        return templateRegistry.find(id)
+                .map(TemplateResponse::from)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown template " + id));
+    }
+
+    private static ResponseEntity<TemplateResponse> registered(TemplateRegistry.Registration registration) {
+        URI location = ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/pdf/templates/{id}")
+                .buildAndExpand(registration.id())
+                .toUri();
+        HttpStatus status = registration.status() == TemplateRegistry.Status.COMPILING
+                ? HttpStatus.ACCEPTED
+                : HttpStatus.OK;
+        return ResponseEntity.status(status).location(location).body(TemplateResponse.from(registration));
+    }
+}
@@ -0,0 +1,42 @@
+package ir.ipaam.fileservice.api.dto;
+
+import ir.ipaam.fileservice.domain.model.RenderJob;
+import ir.ipaam.fileservice.domain.model.RenderJobStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+
+public record RenderJobResponse(
+        String id,
+        RenderJobStatus status,
+        int attempts,
+        Instant createdAt,
+        Instant startedAt,
+        Instant finishedAt,
+        Long queuedMillis,
+        Long renderMillis,
+        String fileName,
+        Long sizeBytes,
+        String error
+) {
+
+    public static RenderJobResponse from(RenderJob job) {
+        return new RenderJobResponse(
+                job.getId(),
+                job.getStatus(),
+                job.getAttempts(),
+                job.getCreatedAt(),
+                job.getStartedAt(),
+                job.getFinishedAt(),
+                millisBetween(job.getCreatedAt(), job.getStartedAt()),
+                millisBetween(job.getStartedAt(), job.getFinishedAt()),
+                job.getFileName(),
+                job.getSizeBytes(),
+                job.getError()
+        );
+    }
+
+    private static Long millisBetween(Instant from, Instant to) {
+        return from != null && to != null ? Duration.between(from, to).toMillis() : null;
+    }
+}
@@ -0,0 +1,20 @@
+package ir.ipaam.fileservice.api.dto;
+
+import ir.ipaam.fileservice.application.service.TemplateRegistry;
+
+public record TemplateResponse(
+        String id,
+        TemplateRegistry.Status status,
+        Integer images,
+        String error
+) {
+
+    public static TemplateResponse from(TemplateRegistry.Registration registration) {
+        return new TemplateResponse(
+                registration.id(),
+                registration.status(),
+                registration.images(),
+                registration.error()
+        );
+    }
+}
@@ -0,0 +1,107 @@
+package ir.ipaam.fileservice.application.config;
+
+import ir.ipaam.fileservice.application.service.ContractPdfRenderer;
+import ir.ipaam.fileservice.application.service.RenderAdmissionController;
+import ir.ipaam.fileservice.application.service.RenderCancellation;
+import ir.ipaam.fileservice.application.service.RenderRejectedException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.Callable;
+
+@Slf4j
+@Configuration
+@RequiredArgsConstructor
+public class AsyncRenderConfig implements WebMvcConfigurer {
+
+    private final RenderProperties renderProperties;
+    private final RenderAdmissionController admission;
+    private final ServerProperties serverProperties;
+
+    // PDFs are written from async StreamingResponseBody tasks; their renders are cancelled when
+    // the async request times out or fails (a client disconnect Tomcat notices), instead of
+    // running to their own deadline for nobody
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(renderWriterExecutor());
+        configurer.registerCallableInterceptors(new CancellingInterceptor());
+    }
+
+    // One writer per render the admission budget can hold at once, so a body never sits in a
+    // queue while budget is free and the budget, not the pool, decides how many run. Capped at
+    // the Tomcat pool, which bounds the requests that can start a body in the first place. The
+    // queue is as short as the pool, so time spent in it stays well inside the async timeout;
+    // past it a response is rejected with 503 rather than left to time out
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolTaskExecutor renderWriterExecutor() {
+        RenderProperties.Async async = renderProperties.getAsync();
+        int threads = async.getThreads() > 0 ? async.getThreads()
+                : (int) Math.max(1, Math.min(serverProperties.getTomcat().getThreads().getMax(),
+                admission.budgetBytes() / ContractPdfRenderer.OPENHTML_BASE_BYTES));
+        int queue = async.getQueueCapacity() > 0 ? async.getQueueCapacity() : threads;
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queue);
+        executor.setThreadNamePrefix("render-writer-");
+        executor.setRejectedExecutionHandler((task, pool) -> {
+            throw new RenderRejectedException("Render rejected: all " + threads
+                    + " response writers are busy and " + queue + " responses are waiting");
+        });
+        log.info("Async render writers: {} threads, {} queued", threads, queue);
+        return executor;
+    }
+
+    static final class CancellingInterceptor implements CallableProcessingInterceptor {
+
+        private static final String ATTRIBUTE = RenderCancellation.class.getName();
+
+        // created on the request thread, so a timeout before the body starts still finds it
+        @Override
+        public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+            request.setAttribute(ATTRIBUTE, new RenderCancellation(), RequestAttributes.SCOPE_REQUEST);
+        }
+
+        // runs on the thread about to write the body
+        @Override
+        public <T> void preProcess(NativeWebRequest request, Callable<T> task) {
+            if (request.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST)
+                    instanceof RenderCancellation cancellation) {
+                cancellation.bind();
+            }
+        }
+
+        @Override
+        public <T> void postProcess(NativeWebRequest request, Callable<T> task, Object result) {
+            RenderCancellation.unbind();
+        }
+
+        @Override
+        public <T> Object handleTimeout(NativeWebRequest request, Callable<T> task) {
+            cancel(request);
+            return RESULT_NONE;
+        }
+
+        @Override
+        public <T> Object handleError(NativeWebRequest request, Callable<T> task, Throwable t) {
+            cancel(request);
+            return RESULT_NONE;
+        }
+
+        private static void cancel(NativeWebRequest request) {
+            if (request.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST)
+                    instanceof RenderCancellation cancellation) {
+                cancellation.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ir.ipaam.fileservice.application.config;
+
+import org.axonframework.common.jdbc.PersistenceExceptionResolver;
+import org.axonframework.eventsourcing.eventstore.jpa.SQLErrorCodesResolver;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.function.SingletonSupplier;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.function.Supplier;
+
+@Configuration
+public class PersistenceConfig {
+
+    // Axon's default opens a connection while the context starts to read the database product
+    // name; this one waits for the first exception, so startup and CDS training runs need no
+    // database
+    @Bean
+    public PersistenceExceptionResolver persistenceExceptionResolver(DataSource dataSource) {
+        Supplier<SQLErrorCodesResolver> resolver = SingletonSupplier.of(() -> {
+            try {
+                return new SQLErrorCodesResolver(dataSource);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Cannot read the database product name", e);
+            }
+        });
+        return exception -> resolver.get().isDuplicateKeyViolation(exception);
+    }
+}
@@ -0,0 +1,19 @@
+package ir.ipaam.fileservice.application.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class RenderExecutorConfig {
+
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService renderExecutor(RenderProperties properties) {
+        return Executors.newFixedThreadPool(
+                Math.max(1, properties.getBatch().getParallelism()),
+                Thread.ofPlatform().name("render-", 0).daemon().factory()
+        );
+    }
+}
@@ -0,0 +1,303 @@
+package ir.ipaam.fileservice.application.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "fileservice.render")
+public class RenderProperties {
+
+    /**
+     * Deadline for a single render; layout and raster loops give up once it has passed.
+     */
+    private Duration timeout = Duration.ofSeconds(60);
+
+    private final Admission admission = new Admission();
+
+    private final Async async = new Async();
+
+    private final Batch batch = new Batch();
+
+    private final Cache cache = new Cache();
+
+    private final Jobs jobs = new Jobs();
+
+    private final Artifacts artifacts = new Artifacts();
+
+    private final Zip zip = new Zip();
+
+    private final Templates templates = new Templates();
+
+    private final Folders folders = new Folders();
+
+    private final Resources resources = new Resources();
+
+    private final Engines engines = new Engines();
+
+    private final Profiling profiling = new Profiling();
+
+    private final Warmup warmup = new Warmup();
+
+    private final Preview preview = new Preview();
+
+    @Getter
+    @Setter
+    public static class Admission {
+        /**
+         * Heap budget shared by all in-flight renders. 0 means half of the max heap.
+         */
+        private long memoryBudgetMb = 0;
+
+        /**
+         * How long a render may wait for budget before it is rejected.
+         */
+        private Duration maxWait = Duration.ofSeconds(30);
+    }
+
+    @Getter
+    @Setter
+    public static class Async {
+        /**
+         * Threads writing streamed PDF responses. 0 fits the pool to the renders the admission
+         * budget admits at once, at most {@code server.tomcat.threads.max}.
+         */
+        private int threads = 0;
+
+        /**
+         * Responses waiting for a writer thread; more are rejected with 503. 0 means as many as
+         * there are threads.
+         */
+        private int queueCapacity = 0;
+    }
+
+    @Getter
+    @Setter
+    public static class Batch {
+        /**
+         * Documents rendered concurrently by the shared render executor.
+         */
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * Upper bound of a batch response's async timeout, which is otherwise one render
+         * timeout per round of {@code parallelism} documents plus one for the merge or ZIP.
+         */
+        private Duration maxDuration = Duration.ofMinutes(30);
+
+        /**
+         * Most documents one batch request may contain; larger batches are rejected with 400.
+         */
+        private int maxItems = 500;
+    }
+
+    @Getter
+    @Setter
+    public static class Cache {
+        private boolean enabled = true;
+
+        /**
+         * Bytes of rendered PDFs kept on the heap (hot tier).
+         */
+        private long memoryMaxMb = 64;
+
+        /**
+         * Bytes of rendered PDFs kept on disk; survives restarts.
+         */
+        private long diskMaxMb = 1024;
+
+        /**
+         * Largest PDF kept in the cache or handed to coalesced requests; larger ones are only streamed.
+         */
+        private long maxEntryMb = 16;
+
+        private String dir = System.getProperty("java.io.tmpdir") + "/fileservice-pdf-cache";
+    }
+
+    @Getter
+    @Setter
+    public static class Jobs {
+        /**
+         * Worker threads claiming queued jobs on this instance. 0 only accepts submissions.
+         */
+        private int workers = 2;
+
+        /**
+         * Idle delay between polls when the queue is empty.
+         */
+        private Duration pollInterval = Duration.ofSeconds(1);
+
+        /**
+         * Claims allowed per job; a job whose workers keep dying is failed after this many.
+         */
+        private int maxAttempts = 3;
+    }
+
+    @Getter
+    @Setter
+    public static class Artifacts {
+        /**
+         * Root of the content-addressed store for job outputs and registered templates; shard
+         * directories live below it. Unset, a directory under {@code java.io.tmpdir} is used.
+         */
+        private String dir;
+
+        /**
+         * Set when several instances share the database: their metadata is shared, so
+         * {@link #dir} must then be a volume all of them mount, and startup fails without it.
+         */
+        private boolean multiInstance = false;
+
+        /**
+         * Finished jobs, and job outputs no remaining job refers to, are removed once older
+         * than this; zero keeps them forever. Registered templates are kept.
+         */
+        private Duration retention = Duration.ofDays(7);
+
+        /**
+         * How often expired jobs and outputs are looked for.
+         */
+        private Duration sweepInterval = Duration.ofHours(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Zip {
+        /**
+         * Binary entries larger than this are spilled to the scratch area instead of the heap.
+         */
+        private long spillThresholdKb = 256;
+
+        /**
+         * Heap one upload may use for entries under the spill threshold; later entries spill.
+         */
+        private long memoryMaxMb = 32;
+
+        /**
+         * Disk shared by all in-flight uploads for spilled entries; uploads beyond it are rejected.
+         */
+        private long scratchMaxMb = 1024;
+
+        private String scratchDir = System.getProperty("java.io.tmpdir") + "/fileservice-zip-scratch";
+    }
+
+    @Getter
+    @Setter
+    public static class Templates {
+        /**
+         * Compiled templates kept in memory; the least recently rendered are dropped and
+         * recompiled from their stored bundle on next use.
+         */
+        private int maxCompiled = 32;
+    }
+
+    @Getter
+    @Setter
+    public static class Folders {
+        /**
+         * Directory holding the template folders /pdf/from-folder may read; {@code folderPath}
+         * is resolved against it and must stay inside it. Unset, the endpoint is disabled.
+         */
+        private String root;
+
+        /**
+         * Folders whose compiled template is cached and watched for changes by /pdf/from-folder.
+         */
+        private int maxCached = 16;
+    }
+
+    @Getter
+    @Setter
+    public static class Resources {
+        /**
+         * Heap for cached template assets (images, stylesheets), including decoded images.
+         */
+        private long cacheMaxMb = 32;
+
+        /**
+         * Larger assets are read through on every use.
+         */
+        private long maxEntryMb = 4;
+
+        /**
+         * Re-read a cached file once its modification time changes.
+         */
+        private boolean validateModified = true;
+    }
+
+    @Getter
+    @Setter
+    public static class Engines {
+        /**
+         * Engine per classpath template, e.g. {@code morabehe: raster}; a template not listed is
+         * rendered by the engine its endpoint has always used.
+         */
+        private Map<String, String> routes = new LinkedHashMap<>();
+
+        /**
+         * Share of renders whose template and model are rendered again on every engine in the
+         * background, to compare their latency and output size. 0 turns shadow renders off.
+         */
+        private double shadowRate = 0;
+    }
+
+    @Getter
+    @Setter
+    public static class Profiling {
+        /**
+         * Honour the X-Render-Profile request header, which renders the response before sending
+         * it to add a Server-Timing header or to answer with the render profile as JSON.
+         */
+        private boolean enabled = true;
+    }
+
+    @Getter
+    @Setter
+    public static class Warmup {
+        /**
+         * Render the warm-up templates on every engine before the service reports ready.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Renders of each template on each engine.
+         */
+        private int renders = 2;
+
+        /**
+         * Upper bound on the warm-up; readiness is reported when it runs out.
+         */
+        private Duration timeout = Duration.ofMinutes(2);
+
+        /**
+         * Classpath template to the classpath JSON file holding its sample model.
+         */
+        private Map<String, String> templates = new LinkedHashMap<>(Map.of(
+                "morabehe", "morabehe/morabeh_inputs",
+                "mika_contract", "mika_contract/mika_contract_inputs.json"));
+    }
+
+    @Getter
+    @Setter
+    public static class Preview {
+        /**
+         * Resolution of PNG previews when the request does not set one.
+         */
+        private int dpi = 48;
+
+        /**
+         * Highest resolution a PNG preview may ask for.
+         */
+        private int maxDpi = 150;
+
+        /**
+         * Most pages one preview may ask for.
+         */
+        private int maxPages = 10;
+    }
+}
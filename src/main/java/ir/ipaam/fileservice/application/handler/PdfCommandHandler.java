@@ -1,106 +1,101 @@
 package ir.ipaam.fileservice.application.handler;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.openhtmltopdf.outputdevice.helper.BaseRendererBuilder;
 import ir.ipaam.fileservice.api.dto.ContractRequest;
 import ir.ipaam.fileservice.api.mapper.ContractModelMapper;
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import ir.ipaam.fileservice.application.service.CompiledTemplate;
+import ir.ipaam.fileservice.application.service.ContractPdfRenderer;
+import ir.ipaam.fileservice.application.service.FolderTemplateCache;
 import ir.ipaam.fileservice.application.service.HtmlToPdfService;
-import ir.ipaam.fileservice.application.service.ResourceResolver;
-import ir.ipaam.fileservice.application.util.ArabicTextUtils;
+import ir.ipaam.fileservice.application.service.PdfBatchRenderer;
+import ir.ipaam.fileservice.application.service.PdfResultCache;
+import ir.ipaam.fileservice.application.service.RenderCoalescer;
+import ir.ipaam.fileservice.application.service.RasterRenderEngine;
+import ir.ipaam.fileservice.application.service.RenderCancellation;
+import ir.ipaam.fileservice.application.service.RenderContext;
+import ir.ipaam.fileservice.application.service.RenderEngineRegistry;
+import ir.ipaam.fileservice.application.service.RenderMetrics;
+import ir.ipaam.fileservice.application.service.RenderProfile;
+import ir.ipaam.fileservice.application.service.ResourceCache;
+import ir.ipaam.fileservice.application.service.TemplateCatalog;
+import ir.ipaam.fileservice.application.service.TemplateRegistry;
+import ir.ipaam.fileservice.application.service.ZipBundle;
+import ir.ipaam.fileservice.application.util.ContentHash;
+import ir.ipaam.fileservice.domain.command.GeneratePdfBatchCommand;
 import ir.ipaam.fileservice.domain.command.GeneratePdfFromContentCommand;
 import ir.ipaam.fileservice.domain.command.GeneratePdfFromFolderCommand;
+import ir.ipaam.fileservice.domain.command.GeneratePdfFromRegisteredTemplateCommand;
 import ir.ipaam.fileservice.domain.command.GeneratePdfFromTemplateCommand;
 import ir.ipaam.fileservice.domain.command.GeneratePdfFromThirdPartyCommand;
 import ir.ipaam.fileservice.domain.command.GeneratePdfFromZipCommand;
+import ir.ipaam.fileservice.domain.command.GeneratePreviewFromTemplateCommand;
+import ir.ipaam.fileservice.domain.command.GeneratePreviewFromThirdPartyCommand;
 import ir.ipaam.fileservice.domain.dto.PdfGenerationResult;
 import lombok.RequiredArgsConstructor;
 import org.axonframework.commandhandling.CommandHandler;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Component;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.UUID;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.regex.Pattern;
 
 @Component
 @RequiredArgsConstructor
 public class PdfCommandHandler {
 
+    // template tag of renders whose markup comes with the request rather than from the catalog
+    private static final String ADHOC_TEMPLATE = "adhoc";
+
+    private static final Pattern UNSAFE_NAME_CHARS = Pattern.compile("[/\\\\\\p{Cc}]");
+
     private final HtmlToPdfService htmlToPdfService;
     private final ObjectMapper objectMapper;
+    private final PdfBatchRenderer pdfBatchRenderer;
+    private final PdfResultCache resultCache;
+    private final RenderCoalescer renderCoalescer;
+    private final RenderProperties renderProperties;
+    private final TemplateCatalog templateCatalog;
+    private final TemplateRegistry templateRegistry;
+    private final FolderTemplateCache folderTemplateCache;
+    private final ResourceCache resourceCache;
+    private final RenderEngineRegistry renderEngines;
+    private final RenderMetrics renderMetrics;
 
     @CommandHandler
     public PdfGenerationResult handle(GeneratePdfFromTemplateCommand command) throws Exception {
-        ClassPathResource htmlRes = new ClassPathResource("morabehe/index.html");
-        ClassPathResource cssRes = new ClassPathResource("morabehe/style.css");
-        ResourceResolver resolver = HtmlToPdfService.classpathResolver("morabehe");
-
-        byte[] pdf;
-        try (InputStream htmlIn = htmlRes.getInputStream();
-             InputStream cssIn = cssRes.getInputStream()) {
-            pdf = htmlToPdfService.convertXhtmlToPdf(htmlIn, cssIn, command.model(), resolver);
-        }
-
-        String fileName = resolveFileName(command.model(), UUID.randomUUID().toString());
-        return new PdfGenerationResult(fileName, pdf);
+        // resolved before anything is metered under it: unknown names are a 404, not a new tag
+        String name = templateCatalog.resolve(
+                command.template() != null ? command.template() : TemplateCatalog.DEFAULT_TEMPLATE);
+        RenderEngineRegistry.Route route = renderEngines.route(name, RasterRenderEngine.NAME);
+
+        String key = ContentHash.start()
+                .add(route.fingerprint())
+                .addJson(command.model())
+                .hex();
+        return cachedResult(resolveFileName(key), key, observed("template", name, route.engine().name(),
+                (ctx, out) -> route.render(command.model(), ctx, out)));
     }
 
     @CommandHandler
     public PdfGenerationResult handle(GeneratePdfFromFolderCommand command) throws Exception {
-        Path baseDir = Paths.get(command.folderPath());
-        if (!Files.exists(baseDir) || !Files.isDirectory(baseDir)) {
-            throw new FileNotFoundException("Folder not found: " + command.folderPath());
-        }
-
-        Path htmlPath = Files.walk(baseDir)
-                .filter(p -> p.toString().toLowerCase().endsWith(".html"))
-                .findFirst()
-                .orElseThrow(() -> new FileNotFoundException("No HTML file found in folder " + command.folderPath()));
-
-        Path cssPath = Files.walk(baseDir)
-                .filter(p -> p.toString().toLowerCase().endsWith(".css"))
-                .findFirst()
-                .orElse(null);
-
-        String html = Files.readString(htmlPath, StandardCharsets.UTF_8)
-                .replace("&nbsp;", "&#160;")
-                .replace("&ensp;", "&#8194;")
-                .replace("&emsp;", "&#8195;");
-
-        String css = (cssPath != null)
-                ? Files.readString(cssPath, StandardCharsets.UTF_8)
-                : "";
-
-        String baseUri = htmlPath.getParent().toUri().toString();
-
-        byte[] pdf = htmlToPdfService.convertXhtmlToPdf(
-                new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8)),
-                new ByteArrayInputStream(css.getBytes(StandardCharsets.UTF_8)),
-                command.model(),
-                HtmlToPdfService.fileResolver(baseUri)
-        );
-
-        String fileName = resolveFileName(command.model(), UUID.randomUUID().toString());
-        return new PdfGenerationResult(fileName, pdf);
+        // the template id fingerprints every file in the folder, and edits recompile it
+        CompiledTemplate template = folderTemplateCache.get(command.folderPath(), renderProperties.getTimeout());
+
+        String key = ContentHash.start()
+                .add(HtmlToPdfService.ENGINE_OPTIONS)
+                .add(template.id())
+                .addJson(command.model())
+                .hex();
+        return cachedResult(resolveFileName(key), key, observed("folder", ADHOC_TEMPLATE, RasterRenderEngine.NAME,
+                (ctx, out) -> htmlToPdfService.render(template, command.model(), ctx, out)));
     }
 
     @CommandHandler
@@ -108,179 +103,184 @@ public class PdfCommandHandler {
         ContractRequest request = command.request();
         Map<String, Object> model = ContractModelMapper.toModel(request);
 
-        String html = new String(
-                new ClassPathResource("morabehe/index.html").getInputStream().readAllBytes(),
-                StandardCharsets.UTF_8
-        );
-        html = html
-                .replace("&nbsp;", "&#160;")
-                .replace("&ensp;", "&#8194;")
-                .replace("&emsp;", "&#8195;");
+        RenderEngineRegistry.Route route = renderEngines.route(TemplateCatalog.DEFAULT_TEMPLATE, ContractPdfRenderer.NAME);
 
-        html = HtmlToPdfService.renderTemplate(html, model);
-        html = ArabicTextUtils.shapeArabicText(html);
-
-        String baseUrl = Objects.requireNonNull(
-                Thread.currentThread().getContextClassLoader().getResource("morabehe/")
-        ).toExternalForm();
-
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        com.openhtmltopdf.pdfboxout.PdfRendererBuilder builder = new com.openhtmltopdf.pdfboxout.PdfRendererBuilder();
-        builder.useFastMode();
-        builder.withHtmlContent(html, baseUrl);
-
-        builder.useFont(
-                () -> {
-                    try {
-                        return new ClassPathResource("morabehe/fonts/IRANSans.ttf").getInputStream();
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                },
-                "IRANSans",
-                300,
-                BaseRendererBuilder.FontStyle.NORMAL,
-                true
-        );
-        builder.useFont(
-                () -> {
-                    try {
-                        return new ClassPathResource("fonts/Vazirmatn-Bold.ttf").getInputStream();
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                },
-                "Vazirmatn",
-                700,
-                BaseRendererBuilder.FontStyle.NORMAL,
-                true
-        );
+        String key = ContentHash.start()
+                .add(route.fingerprint())
+                .addJson(model)
+                .hex();
+        String fileName = "Morabaha-" + fileNamePart(request.getPdf_code()) + ".pdf";
+        return cachedResult(fileName, key, observed("third-party", TemplateCatalog.DEFAULT_TEMPLATE, route.engine().name(),
+                (ctx, out) -> route.render(model, ctx, out)));
+    }
 
-        File reg = copyToTemp("morabehe/fonts/Vazirmatn-Regular.ttf");
-        File bold = copyToTemp("morabehe/fonts/Vazirmatn-Bold.ttf");
+    @CommandHandler
+    public PdfGenerationResult handle(GeneratePreviewFromTemplateCommand command) throws Exception {
+        String name = templateCatalog.resolve(
+                command.template() != null ? command.template() : TemplateCatalog.DEFAULT_TEMPLATE);
+        RenderEngineRegistry.Route route = renderEngines.route(name, RasterRenderEngine.NAME);
+
+        String key = ContentHash.start()
+                .add(route.fingerprint())
+                .add(command.preview().toString())
+                .addJson(command.model())
+                .hex();
+        String fileName = key.substring(0, 16) + "-preview." + command.preview().extension();
+        return cachedResult(fileName, key, observed("preview", name, route.engine().name(),
+                (ctx, out) -> route.preview(command.model(), command.preview(), ctx, out)));
+    }
 
-        builder.useFont(reg, "Vazirmatn", 400, BaseRendererBuilder.FontStyle.NORMAL, true);
-        builder.useFont(bold, "Vazirmatn", 700, BaseRendererBuilder.FontStyle.NORMAL, true);
+    @CommandHandler
+    public PdfGenerationResult handle(GeneratePreviewFromThirdPartyCommand command) throws Exception {
+        ContractRequest request = command.request();
+        Map<String, Object> model = ContractModelMapper.toModel(request);
 
-        builder.toStream(out);
-        builder.run();
+        RenderEngineRegistry.Route route = renderEngines.route(TemplateCatalog.DEFAULT_TEMPLATE, ContractPdfRenderer.NAME);
+
+        String key = ContentHash.start()
+                .add(route.fingerprint())
+                .add(command.preview().toString())
+                .addJson(model)
+                .hex();
+        String fileName = "Morabaha-" + fileNamePart(request.getPdf_code())
+                + "-preview." + command.preview().extension();
+        return cachedResult(fileName, key, observed("third-party-preview", TemplateCatalog.DEFAULT_TEMPLATE,
+                route.engine().name(), (ctx, out) -> route.preview(model, command.preview(), ctx, out)));
+    }
 
-        String fileName = "Morabaha-" + (request.getPdf_code() != null ? request.getPdf_code() : "generated") + ".pdf";
-        return new PdfGenerationResult(fileName, out.toByteArray());
+    @CommandHandler
+    public PdfGenerationResult handle(GeneratePdfBatchCommand command) throws Exception {
+        List<PdfBatchRenderer.Item> items = new ArrayList<>(command.requests().size());
+        for (int i = 0; i < command.requests().size(); i++) {
+            ContractRequest request = command.requests().get(i);
+            String name = String.format("%04d-Morabaha-%s.pdf", i + 1,
+                    fileNamePart(request.getPdf_code()));
+            items.add(new PdfBatchRenderer.Item(name, ContractModelMapper.toModel(request)));
+        }
+
+        if (command.merged()) {
+            return PdfGenerationResult.streamed("Morabaha-batch.pdf", null,
+                    out -> pdfBatchRenderer.renderMerged(items, renderProperties.getTimeout(), out));
+        }
+        return PdfGenerationResult.streamed("Morabaha-batch.zip", null,
+                out -> pdfBatchRenderer.renderZip(items, renderProperties.getTimeout(), out));
     }
 
     @CommandHandler
     public PdfGenerationResult handle(GeneratePdfFromContentCommand command) throws Exception {
-        byte[] pdf = htmlToPdfService.convertXhtmlToPdf(
-                new ByteArrayInputStream(command.html().getBytes(StandardCharsets.UTF_8)),
-                new ByteArrayInputStream(command.css().getBytes(StandardCharsets.UTF_8)),
-                command.model(),
-                HtmlToPdfService.fileResolver("")
-        );
-
-        String fileName = command.hashCode() + ".pdf";
-        return new PdfGenerationResult(fileName, pdf);
+        String key = ContentHash.start()
+                .add(HtmlToPdfService.ENGINE_OPTIONS)
+                .add(command.html())
+                .add(command.css())
+                .addJson(command.model())
+                .hex();
+        return cachedResult(resolveFileName(key), key, observed("content", ADHOC_TEMPLATE, RasterRenderEngine.NAME,
+                (ctx, out) -> htmlToPdfService.convertXhtmlToPdf(
+                        new ByteArrayInputStream(command.html().getBytes(StandardCharsets.UTF_8)),
+                        new ByteArrayInputStream(command.css().getBytes(StandardCharsets.UTF_8)),
+                        command.model(),
+                        resourceCache.cached("file", HtmlToPdfService.fileResolver("")),
+                        ctx,
+                        out
+                )));
     }
 
     @CommandHandler
     public PdfGenerationResult handle(GeneratePdfFromZipCommand command) throws Exception {
-        Path tempDir = Files.createTempDirectory("pdfzip_");
-        try {
-            unzip(new ByteArrayInputStream(command.zipContent()), tempDir);
-
-            Optional<Path> htmlPath = findFile(tempDir, ".html");
-            Path html = htmlPath.orElseThrow(() -> new FileNotFoundException("No HTML file found in ZIP"));
-            Optional<Path> cssPath = findFile(tempDir, ".css");
-
-            Map<String, Object> model = objectMapper.readValue(command.modelJson(), Map.class);
-
-            String htmlContent = Files.readString(html, StandardCharsets.UTF_8)
-                    .replace("&nbsp;", "&#160;")
-                    .replace("&ensp;", "&#8194;")
-                    .replace("&emsp;", "&#8195;");
-            String cssContent = cssPath.map(path -> {
-                try {
-                    return Files.readString(path, StandardCharsets.UTF_8);
-                } catch (IOException e) {
-                    throw new IllegalStateException("Failed to read CSS file", e);
-                }
-            }).orElse("");
-
-            String baseUri = html.getParent().toUri().toString();
-
-            byte[] pdf = htmlToPdfService.convertXhtmlToPdf(
-                    new ByteArrayInputStream(htmlContent.getBytes(StandardCharsets.UTF_8)),
-                    new ByteArrayInputStream(cssContent.getBytes(StandardCharsets.UTF_8)),
-                    model,
-                    HtmlToPdfService.fileResolver(baseUri)
-            );
-
-            String fileName = resolveFileName(model, UUID.randomUUID().toString());
-            return new PdfGenerationResult(fileName, pdf);
-        } finally {
-            deleteDirectory(tempDir);
-        }
+        Map<String, Object> model = objectMapper.readValue(command.modelJson(), Map.class);
+
+        String key = ContentHash.start()
+                .add(HtmlToPdfService.ENGINE_OPTIONS)
+                .add(command.bundle().contentHash())
+                .addJson(model)
+                .hex();
+        return cachedResult(resolveFileName(key), key, observed("zip", ADHOC_TEMPLATE, RasterRenderEngine.NAME,
+                (ctx, out) -> renderZip(command.bundle(), model, ctx, out)));
     }
 
-    private static File copyToTemp(String classpath) throws IOException {
-        try (InputStream in = new ClassPathResource(classpath).getInputStream()) {
-            File file = File.createTempFile("font-", ".ttf");
-            file.deleteOnExit();
-            try (OutputStream out = new FileOutputStream(file)) {
-                in.transferTo(out);
-            }
-            return file;
-        }
+    @CommandHandler
+    public PdfGenerationResult handle(GeneratePdfFromRegisteredTemplateCommand command) throws Exception {
+        CompiledTemplate template = templateRegistry.await(command.templateId(), renderProperties.getTimeout());
+
+        String key = ContentHash.start()
+                .add(HtmlToPdfService.ENGINE_OPTIONS)
+                .add(template.id())
+                .addJson(command.model())
+                .hex();
+        return cachedResult(resolveFileName(key), key, observed("registered", ADHOC_TEMPLATE, RasterRenderEngine.NAME,
+                (ctx, out) -> htmlToPdfService.render(template, command.model(), ctx, out)));
     }
 
-    private static String resolveFileName(Map<String, Object> model, String fallback) {
-        if (model == null || model.isEmpty()) {
-            return fallback + ".pdf";
-        }
-        return model.hashCode() + ".pdf";
+    private void renderZip(ZipBundle zip, Map<String, Object> model, RenderContext ctx, OutputStream out)
+            throws IOException {
+        String html = zip.findFirst(".html")
+                .orElseThrow(() -> new FileNotFoundException("No HTML file found in ZIP"));
+        Optional<String> css = zip.findFirst(".css");
+
+        String htmlContent = new String(zip.read(html), StandardCharsets.UTF_8)
+                .replace("&nbsp;", "&#160;")
+                .replace("&ensp;", "&#8194;")
+                .replace("&emsp;", "&#8195;");
+        byte[] cssContent = css.isPresent() ? zip.read(css.get()) : new byte[0];
+
+        htmlToPdfService.convertXhtmlToPdf(
+                new ByteArrayInputStream(htmlContent.getBytes(StandardCharsets.UTF_8)),
+                new ByteArrayInputStream(cssContent),
+                model,
+                zip.relativeTo(html),
+                ctx,
+                out
+        );
     }
 
-    private void unzip(InputStream inputStream, Path targetDir) throws IOException {
-        try (ZipInputStream zis = new ZipInputStream(inputStream)) {
-            ZipEntry entry;
-            while ((entry = zis.getNextEntry()) != null) {
-                Path newFile = targetDir.resolve(entry.getName()).normalize();
-                if (!newFile.startsWith(targetDir)) {
-                    throw new IOException("ZIP entry outside target dir: " + entry.getName());
-                }
-                if (entry.isDirectory()) {
-                    Files.createDirectories(newFile);
-                } else {
-                    Files.createDirectories(newFile.getParent());
-                    Files.copy(zis, newFile, StandardCopyOption.REPLACE_EXISTING);
-                }
-            }
+    // Cache hits are answered with the stored bytes. Misses render into the response when it
+    // is written; concurrent identical requests share that render, waiting for it under the
+    // same timeout and cancellation as a render of their own, and later ones hit the cache.
+    private PdfGenerationResult cachedResult(String fileName, String key, PdfGenerationResult.Body render) {
+        Optional<byte[]> cached = resultCache.get(key);
+        if (cached.isPresent()) {
+            return new PdfGenerationResult(fileName, cached.get(), key);
         }
+        return PdfGenerationResult.streamed(fileName, key,
+                out -> renderCoalescer.stream(key,
+                        RenderCancellation.attach(RenderContext.withTimeout(renderProperties.getTimeout())),
+                        out, render, pdf -> resultCache.put(key, pdf)));
     }
 
-    private Optional<Path> findFile(Path dir, String extension) throws IOException {
-        try (var stream = Files.walk(dir)) {
-            return stream.filter(p -> p.toString().toLowerCase().endsWith(extension))
-                    .findFirst();
+    // pdf_code comes from the caller and ends up in file and ZIP entry names
+    static String fileNamePart(String pdfCode) {
+        if (pdfCode == null) {
+            return "generated";
         }
+        String safe = UNSAFE_NAME_CHARS.matcher(pdfCode).replaceAll("").replace("..", "");
+        return safe.isBlank() ? "generated" : safe;
     }
 
-    private void deleteDirectory(Path dir) throws IOException {
-        if (dir == null) {
-            return;
-        }
-        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                Files.deleteIfExists(file);
-                return FileVisitResult.CONTINUE;
+    // A fresh context per render, metered and labelled for JFR under the endpoint, template and
+    // engine, and cancelled with the request; the whole render is timed as stage "total" unless
+    // it fails
+    private PdfGenerationResult.Body observed(String endpoint, String template, String engine, Render render) {
+        return out -> {
+            RenderContext ctx = RenderCancellation.attach(RenderContext.withTimeout(renderProperties.getTimeout())
+                    .observe(RenderProfile.attach(renderMetrics.observer(endpoint, template, engine)))
+                    .label(endpoint, template, engine));
+            RenderContext.Stage total = ctx.stage("total");
+            try {
+                render.render(ctx, out);
+            } catch (IOException | RuntimeException e) {
+                ctx.count("failures", 1);
+                throw e;
             }
+            total.close();
+        };
+    }
 
-            @Override
-            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                Files.deleteIfExists(dir);
-                return FileVisitResult.CONTINUE;
-            }
-        });
+    @FunctionalInterface
+    private interface Render {
+        void render(RenderContext ctx, OutputStream out) throws IOException;
+    }
+
+    private static String resolveFileName(String contentHash) {
+        return contentHash.substring(0, 16) + ".pdf";
     }
 }
@@ -0,0 +1,69 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Removes finished render jobs older than {@code fileservice.render.artifacts.retention}, then
+ * the job outputs no remaining job refers to. Every instance sweeps; deleting twice is harmless.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ArtifactRetention {
+
+    private final RenderJobService jobService;
+    private final PdfArtifactStore artifactStore;
+    private final RenderProperties renderProperties;
+
+    private volatile Thread thread;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Duration retention = renderProperties.getArtifacts().getRetention();
+        if (retention == null || retention.isZero() || retention.isNegative()) {
+            return;
+        }
+        long intervalMillis = renderProperties.getArtifacts().getSweepInterval().toMillis();
+        thread = Thread.ofPlatform().name("artifact-retention").daemon().start(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                sweep(Instant.now().minus(retention));
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        Thread t = thread;
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    void sweep(Instant cutoff) {
+        try {
+            int jobs = jobService.purgeFinished(cutoff);
+            int artifacts = artifactStore.purgeUnreferenced(MediaType.APPLICATION_PDF_VALUE, cutoff);
+            if (jobs > 0 || artifacts > 0) {
+                log.info("Removed {} finished render jobs and {} job outputs older than {}", jobs, artifacts, cutoff);
+            }
+        } catch (Exception e) {
+            // database unavailable and the like; the next sweep tries again
+            log.warn("Artifact retention sweep failed: {}", e.getMessage());
+        }
+    }
+}
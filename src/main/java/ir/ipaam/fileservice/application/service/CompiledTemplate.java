@@ -0,0 +1,167 @@
+package ir.ipaam.fileservice.application.service;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A template with its model-independent preprocessing done: normalized XHTML with the
+ * positions of its placeholders, the parsed stylesheet and the decoded images. Images whose
+ * source is only known once the model is substituted are read at render time through the
+ * template's resolver. Immutable, so one instance serves concurrent renders. Built by
+ * {@link HtmlToPdfService#compile} or read back from the build-time catalog with {@link #readFrom}.
+ */
+public final class CompiledTemplate {
+
+    /** A {@code {{key}}} or {@code {{key|raw}}} occupying {@code [start, end)} of the XHTML. */
+    record Placeholder(int start, int end, String key, boolean raw) {
+    }
+
+    private final String id;
+    private final String xhtml;
+    private final List<Placeholder> placeholders;
+    private final CssEngine css;
+    private final Map<String, BufferedImage> images;
+    private final ResourceResolver resolver;
+    private final boolean rawPlaceholders;
+
+    CompiledTemplate(String id, String xhtml, List<Placeholder> placeholders, CssEngine css,
+                     Map<String, BufferedImage> images, ResourceResolver resources) {
+        this.id = id;
+        this.xhtml = xhtml;
+        this.placeholders = List.copyOf(placeholders);
+        this.css = css;
+        this.images = Map.copyOf(images);
+        this.rawPlaceholders = placeholders.stream().anyMatch(Placeholder::raw);
+        // images decoded at compile time first; model-driven sources go to the template's resources
+        this.resolver = new ResourceResolver() {
+            @Override
+            public InputStream open(String src) throws IOException {
+                if (resources == null) {
+                    throw new FileNotFoundException("Not part of compiled template " + id + ": " + src);
+                }
+                return resources.open(src);
+            }
+
+            @Override
+            public BufferedImage readImage(String src) throws IOException {
+                BufferedImage bi = CompiledTemplate.this.images.get(src);
+                if (bi != null) {
+                    return bi;
+                }
+                if (resources == null) {
+                    throw new FileNotFoundException("Not part of compiled template " + id + ": " + src);
+                }
+                return resources.readImage(src);
+            }
+        };
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public int imageCount() {
+        return images.size();
+    }
+
+    String xhtml() {
+        return xhtml;
+    }
+
+    List<Placeholder> placeholders() {
+        return placeholders;
+    }
+
+    CssEngine css() {
+        return css;
+    }
+
+    ResourceResolver resolver() {
+        return resolver;
+    }
+
+    boolean rawPlaceholders() {
+        return rawPlaceholders;
+    }
+
+    /**
+     * Serializes the template for the catalog. Images are stored as raw ARGB pixels so that
+     * loading them is a bulk copy rather than a PNG/JPEG decode.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        writeString(out, id);
+        writeString(out, xhtml);
+        out.writeInt(placeholders.size());
+        for (Placeholder p : placeholders) {
+            out.writeInt(p.start());
+            out.writeInt(p.end());
+            writeString(out, p.key());
+            out.writeBoolean(p.raw());
+        }
+        css.writeTo(out);
+        out.writeInt(images.size());
+        for (Map.Entry<String, BufferedImage> e : images.entrySet()) {
+            BufferedImage bi = e.getValue();
+            int w = bi.getWidth();
+            int h = bi.getHeight();
+            writeString(out, e.getKey());
+            out.writeInt(w);
+            out.writeInt(h);
+            for (int argb : bi.getRGB(0, 0, w, h, null, 0, w)) {
+                out.writeInt(argb);
+            }
+        }
+    }
+
+    /** Reads a template written by {@link #writeTo}; images not in it are read through {@code resources}. */
+    static CompiledTemplate readFrom(ByteBuffer in, ResourceResolver resources) {
+        String id = readString(in);
+        String xhtml = readString(in);
+        int count = in.getInt();
+        List<Placeholder> placeholders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            placeholders.add(new Placeholder(in.getInt(), in.getInt(), readString(in), in.get() != 0));
+        }
+        CssEngine css = CssEngine.readFrom(in);
+        int imageCount = in.getInt();
+        Map<String, BufferedImage> images = new LinkedHashMap<>();
+        for (int i = 0; i < imageCount; i++) {
+            String key = readString(in);
+            int w = in.getInt();
+            int h = in.getInt();
+            BufferedImage bi = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            in.asIntBuffer().get(((DataBufferInt) bi.getRaster().getDataBuffer()).getData());
+            in.position(in.position() + w * h * Integer.BYTES);
+            images.put(key, bi);
+        }
+        return new CompiledTemplate(id, xhtml, placeholders, css, images, resources);
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static String readString(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,267 @@
+package ir.ipaam.fileservice.application.service;
+
+import com.openhtmltopdf.extend.FSCacheEx;
+import com.openhtmltopdf.extend.FSCacheValue;
+import com.openhtmltopdf.extend.FSStream;
+import com.openhtmltopdf.extend.impl.FSDefaultCacheStore;
+import com.openhtmltopdf.outputdevice.helper.BaseRendererBuilder;
+import com.openhtmltopdf.pdfboxout.PdfBoxRenderer;
+import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
+import com.openhtmltopdf.util.XRRuntimeException;
+import ir.ipaam.fileservice.application.util.ContentHash;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The openhtmltopdf {@link RenderEngine}, used for the morabehe contract by default. Each
+ * classpath template is shaped and parsed into a DOM once; fonts, font metrics, stylesheets
+ * and images are loaded once and shared by every request. A render only pays for patching the
+ * placeholder nodes of a copy of the DOM, shaping the inserted values, and layout.
+ */
+@Service
+public class ContractPdfRenderer implements RenderEngine {
+
+    public static final String NAME = "openhtmltopdf";
+
+    /** Part of the result cache key; bump when renderer output changes for the same input. */
+    public static final String ENGINE_OPTIONS = "openhtmltopdf-1.0.10;fast-mode;v1";
+
+    // openhtmltopdf keeps DOM, CSS cascade and box tree alive for the whole run; also the
+    // smallest reservation a render makes, which sizes the async writer pool
+    public static final long OPENHTML_BASE_BYTES = 16L * 1024 * 1024;
+    private static final long OPENHTML_BYTES_PER_CHAR = 200L;
+
+    private final class Template {
+        final String source;
+        final PreShapedTemplate shaped;
+        final PreparsedDocument document;
+        final String baseUrl;
+        final String resourceScheme;
+        final ResourceResolver resources;
+        final String fingerprint;
+
+        Template(String name) {
+            URL base = Thread.currentThread().getContextClassLoader().getResource(name + "/");
+            if (base == null || !new ClassPathResource(name + "/index.html").exists()) {
+                throw new TemplateNotFoundException("Unknown template " + name);
+            }
+            this.source = new String(readClasspath(name + "/index.html"), StandardCharsets.UTF_8)
+                    .replace("&nbsp;", "&#160;")
+                    .replace("&ensp;", "&#8194;")
+                    .replace("&emsp;", "&#8195;");
+            this.shaped = PreShapedTemplate.of(source);
+            this.baseUrl = base.toExternalForm();
+            // |raw values are markup and have to go through the parser with the rest of the page
+            String skeleton = shaped.skeleton();
+            try {
+                this.document = skeleton != null ? PreparsedDocument.parse(skeleton, baseUrl) : null;
+            } catch (XRRuntimeException e) {
+                // the raster engine tolerates markup that is not well-formed; this one does not
+                throw new InvalidTemplateException("Template " + name + " cannot be rendered by " + NAME
+                        + ": " + e.getMessage(), e);
+            }
+            this.resourceScheme = URI.create(baseUrl).getScheme();
+            this.resources = resourceCache.cached("classpath:" + name, HtmlToPdfService.classpathResolver(name));
+            this.fingerprint = ContentHash.start()
+                    .add(ENGINE_OPTIONS)
+                    .add(source)
+                    .add(iranSans)
+                    .add(vazirmatnRegular)
+                    .add(vazirmatnBold)
+                    .hex();
+        }
+    }
+
+    private final RenderAdmissionController admission;
+    private final ResourceCache resourceCache;
+    private final byte[] iranSans;
+    private final byte[] vazirmatnRegular;
+    private final byte[] vazirmatnBold;
+    private final FSCacheEx<String, FSCacheValue> fontMetricsCache = new FSDefaultCacheStore();
+    private final Map<String, Template> templates = new ConcurrentHashMap<>();
+
+    public ContractPdfRenderer(RenderAdmissionController admission, ResourceCache resourceCache) {
+        this.admission = admission;
+        this.resourceCache = resourceCache;
+        this.iranSans = readClasspath("morabehe/fonts/IRANSans.ttf");
+        this.vazirmatnRegular = readClasspath("morabehe/fonts/Vazirmatn-Regular.ttf");
+        this.vazirmatnBold = readClasspath("fonts/Vazirmatn-Bold.ttf");
+        template(TemplateCatalog.DEFAULT_TEMPLATE);
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public String fingerprint(String template) {
+        return template(template).fingerprint;
+    }
+
+    @Override
+    public void render(String name, Map<String, Object> model, RenderContext ctx, OutputStream out) throws IOException {
+        ctx.checkpoint();
+        Template template = template(name);
+        ctx.templateId(template.fingerprint);
+        PdfRendererBuilder builder = builder(template, model, ctx);
+        builder.toStream(ctx.guard(out));
+        // same as builder.run(), split so an abandoned request stops between layout and output
+        try (RenderAdmissionController.Reservation ignored = reserve(template, model, ctx);
+             PdfBoxRenderer renderer = build(builder, ctx)) {
+            layout(renderer, ctx);
+            try (RenderContext.Stage write = ctx.stage("write")) {
+                renderer.createPDF();
+            }
+        }
+    }
+
+    // every page is drawn into the document, which is never saved; only the selected pages
+    // are written or rasterized
+    @Override
+    public void preview(String name, Map<String, Object> model, PagePreview preview, RenderContext ctx,
+                        OutputStream out) throws IOException {
+        ctx.checkpoint();
+        Template template = template(name);
+        ctx.templateId(template.fingerprint);
+        PdfRendererBuilder builder = builder(template, model, ctx);
+        try (RenderAdmissionController.Reservation ignored = reserve(template, model, ctx);
+             PdfBoxRenderer renderer = build(builder, ctx)) {
+            layout(renderer, ctx);
+            try (RenderContext.Stage draw = ctx.stage("draw")) {
+                renderer.createPDFWithoutClosing();
+            }
+            try (PDDocument doc = renderer.getPdfDocument()) {
+                PreviewWriter.writeDocument(doc, preview, ctx, out);
+            }
+        }
+    }
+
+    private PdfRendererBuilder builder(Template template, Map<String, Object> model, RenderContext ctx) {
+        PdfRendererBuilder builder = new PdfRendererBuilder();
+        builder.useFastMode();
+        try (RenderContext.Stage ignored = ctx.stage("substitute")) {
+            if (template.document != null) {
+                builder.withW3cDocument(template.document.render(model), template.baseUrl);
+            } else {
+                builder.withHtmlContent(template.shaped.render(model), template.baseUrl);
+            }
+        }
+        builder.useCacheStore(PdfRendererBuilder.CacheStore.PDF_FONT_METRICS, fontMetricsCache);
+        builder.useProtocolsStreamImplementation(url -> openResource(template, url), template.resourceScheme);
+
+        builder.useFont(() -> new ByteArrayInputStream(iranSans),
+                "IRANSans", 300, BaseRendererBuilder.FontStyle.NORMAL, true);
+        builder.useFont(() -> new ByteArrayInputStream(vazirmatnRegular),
+                "Vazirmatn", 400, BaseRendererBuilder.FontStyle.NORMAL, true);
+        builder.useFont(() -> new ByteArrayInputStream(vazirmatnBold),
+                "Vazirmatn", 700, BaseRendererBuilder.FontStyle.NORMAL, true);
+
+        builder.usePageSupplier((doc, width, height, pageNumber, shadowPageNumber) -> {
+            ctx.checkpoint();
+            PDPage page = new PDPage(new PDRectangle(width, height));
+            doc.addPage(page);
+            return page;
+        });
+        return builder;
+    }
+
+    // the model's text is substituted into the page, so large tables cost as much as large templates
+    private RenderAdmissionController.Reservation reserve(Template template, Map<String, Object> model,
+                                                          RenderContext ctx) {
+        long chars = template.source.length() + modelChars(model);
+        return admission.reserve(OPENHTML_BASE_BYTES + chars * OPENHTML_BYTES_PER_CHAR, ctx);
+    }
+
+    // characters of every value in the model, nested maps and lists included
+    static long modelChars(Object value) {
+        if (value instanceof Map<?, ?> map) {
+            long chars = 0;
+            for (Object nested : map.values()) {
+                chars += modelChars(nested);
+            }
+            return chars;
+        }
+        if (value instanceof Collection<?> list) {
+            long chars = 0;
+            for (Object nested : list) {
+                chars += modelChars(nested);
+            }
+            return chars;
+        }
+        return value == null ? 0 : String.valueOf(value).length();
+    }
+
+    private static void layout(PdfBoxRenderer renderer, RenderContext ctx) {
+        ctx.checkpoint();
+        try (RenderContext.Stage layout = ctx.stage("layout")) {
+            renderer.layout();
+        }
+        ctx.checkpoint();
+        ctx.count("pages", renderer.getRootBox().getLayer().getPages().size());
+    }
+
+    // parses the stylesheets and loads the fonts
+    private static PdfBoxRenderer build(PdfRendererBuilder builder, RenderContext ctx) {
+        try (RenderContext.Stage ignored = ctx.stage("build")) {
+            return builder.buildPdfRenderer();
+        }
+    }
+
+    private Template template(String name) {
+        return templates.computeIfAbsent(TemplateCatalog.checkName(name), Template::new);
+    }
+
+    // stylesheets and images are read from the resource cache instead of the jar on every
+    // render; openhtmltopdf reports a null stream as a missing resource
+    private static FSStream openResource(Template template, String url) {
+        return new FSStream() {
+            @Override
+            public InputStream getStream() {
+                return open(template, url);
+            }
+
+            @Override
+            public Reader getReader() {
+                InputStream in = open(template, url);
+                return in != null ? new InputStreamReader(in, StandardCharsets.UTF_8) : null;
+            }
+        };
+    }
+
+    private static InputStream open(Template template, String url) {
+        try {
+            if (url.startsWith(template.baseUrl)) {
+                return template.resources.open(url.substring(template.baseUrl.length()));
+            }
+            return URI.create(url).toURL().openStream();
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readClasspath(String path) {
+        try (InputStream in = new ClassPathResource(path).getInputStream()) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load " + path, e);
+        }
+    }
+}
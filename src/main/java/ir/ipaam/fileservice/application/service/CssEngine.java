@@ -8,6 +8,9 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import java.awt.Color;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class CssEngine {
@@ -40,6 +43,45 @@ public class CssEngine {
         return new CssEngine(out);
     }
 
+    /** Writes the parsed rules for the template catalog; see {@link CompiledTemplate#writeTo}. */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(rules.size());
+        for (CssRule r : rules) {
+            CompiledTemplate.writeString(out, r.rawSelector);
+            CompiledTemplate.writeString(out, r.tag);
+            CompiledTemplate.writeString(out, r.id);
+            out.writeInt(r.classes.size());
+            for (String c : r.classes) CompiledTemplate.writeString(out, c);
+            out.writeInt(r.specificity);
+            out.writeInt(r.order);
+            out.writeInt(r.decls.size());
+            for (Map.Entry<String, String> d : r.decls.entrySet()) {
+                CompiledTemplate.writeString(out, d.getKey());
+                CompiledTemplate.writeString(out, d.getValue());
+            }
+        }
+    }
+
+    static CssEngine readFrom(ByteBuffer in) {
+        int count = in.getInt();
+        List<CssRule> rules = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String rawSelector = CompiledTemplate.readString(in);
+            String tag = CompiledTemplate.readString(in);
+            String id = CompiledTemplate.readString(in);
+            int classCount = in.getInt();
+            Set<String> classes = new HashSet<>();
+            for (int c = 0; c < classCount; c++) classes.add(CompiledTemplate.readString(in));
+            int specificity = in.getInt();
+            int order = in.getInt();
+            int declCount = in.getInt();
+            Map<String, String> decls = new HashMap<>();
+            for (int d = 0; d < declCount; d++) decls.put(CompiledTemplate.readString(in), CompiledTemplate.readString(in));
+            rules.add(new CssRule(rawSelector, tag, id, classes, specificity, order, decls));
+        }
+        return new CssEngine(rules);
+    }
+
     public Style apply(Element el, Style inherited) {
         Style s = inherited.copy();
         List<CssRule> matched = new ArrayList<>();
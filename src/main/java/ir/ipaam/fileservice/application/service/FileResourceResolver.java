@@ -0,0 +1,22 @@
+package ir.ipaam.fileservice.application.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A resolver backed by files, so callers such as {@link ResourceCache} can see where a
+ * reference points and when that file last changed.
+ */
+@FunctionalInterface
+public interface FileResourceResolver extends ResourceResolver {
+
+    /** The file {@code src} refers to; it need not exist. */
+    Path pathOf(String src) throws IOException;
+
+    @Override
+    default InputStream open(String src) throws IOException {
+        return Files.newInputStream(pathOf(src));
+    }
+}
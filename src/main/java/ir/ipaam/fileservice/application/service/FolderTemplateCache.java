@@ -0,0 +1,277 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import ir.ipaam.fileservice.application.util.ContentHash;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Compiled templates for {@code /pdf/from-folder}, one per folder under
+ * {@code fileservice.render.folders.root}. Every directory of a cached folder is registered
+ * with a {@link WatchService}; any change recompiles the folder in the background and later
+ * requests wait for the new version. Requests for an unchanged folder do not touch the
+ * filesystem. Images, including those whose source comes from the model, are read from the
+ * folder's directory when rendered and never from outside the root.
+ */
+@Slf4j
+@Service
+public class FolderTemplateCache {
+
+    // editors save in several steps (temp file, rename, touch); recompile once they settle
+    private static final long SETTLE_MILLIS = 200;
+
+    private static final class Folder {
+        final Path root;
+        final List<WatchKey> keys = new ArrayList<>();
+        volatile CompletableFuture<CompiledTemplate> current;
+
+        Folder(Path root) {
+            this.root = root;
+        }
+    }
+
+    private final ExecutorService renderExecutor;
+    private final ResourceCache resourceCache;
+    private final Path allowedRoot;
+    private final WatchService watchService;
+    private final Map<Path, Folder> folders;
+    private final Map<WatchKey, Path> watchedRoots = new ConcurrentHashMap<>();
+    private final Thread watcher;
+
+    public FolderTemplateCache(ExecutorService renderExecutor, ResourceCache resourceCache,
+                               RenderProperties properties) throws IOException {
+        this.renderExecutor = renderExecutor;
+        this.resourceCache = resourceCache;
+        String root = properties.getFolders().getRoot();
+        this.allowedRoot = root == null || root.isBlank() ? null : Paths.get(root).toAbsolutePath().normalize();
+        this.watchService = FileSystems.getDefault().newWatchService();
+        int maxCached = Math.max(1, properties.getFolders().getMaxCached());
+        this.folders = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Folder> eldest) {
+                if (size() > maxCached) {
+                    unwatch(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.watcher = Thread.ofPlatform().name("folder-template-watcher").daemon().start(this::watch);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        watcher.interrupt();
+        watchService.close();
+    }
+
+    /**
+     * The compiled template of {@code folder}, relative to the configured root, compiling it on
+     * first use. Waits up to {@code timeout} when a compile is in progress.
+     */
+    public CompiledTemplate get(String folder, Duration timeout) throws IOException {
+        if (allowedRoot == null) {
+            throw new TemplateNotFoundException("/pdf/from-folder is disabled; fileservice.render.folders.root is not set");
+        }
+        Path root;
+        try {
+            root = allowedRoot.resolve(folder).normalize();
+        } catch (InvalidPathException e) {
+            throw new TemplateNotFoundException("Folder not found: " + folder);
+        }
+        if (!root.startsWith(allowedRoot)) {
+            throw new TemplateNotFoundException("Folder " + folder + " is outside fileservice.render.folders.root");
+        }
+        Folder f;
+        synchronized (folders) {
+            f = folders.get(root);
+            if (f == null) {
+                // links are followed once, when the folder is first seen
+                if (!Files.isDirectory(root) || !root.toRealPath().startsWith(allowedRoot.toRealPath())) {
+                    throw new TemplateNotFoundException("Folder not found: " + folder);
+                }
+                f = new Folder(root);
+                folders.put(root, f);
+                f.current = compileAsync(f);
+            }
+        }
+        return await(f, timeout);
+    }
+
+    private CompiledTemplate await(Folder f, Duration timeout) throws IOException {
+        try {
+            return f.current.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new RenderRejectedException("Template in " + f.root + " is still compiling");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RenderCancelledException("Interrupted while waiting for template in " + f.root);
+        }
+    }
+
+    private CompletableFuture<CompiledTemplate> compileAsync(Folder f) {
+        return CompletableFuture.supplyAsync(() -> compile(f), renderExecutor);
+    }
+
+    private CompiledTemplate compile(Folder f) {
+        long start = System.nanoTime();
+        try {
+            Path htmlPath = null;
+            Path cssPath = null;
+            // directories are watched before their files are read, so an edit made while
+            // compiling still triggers another compile
+            ContentHash fingerprint = ContentHash.start().add(f.root.toUri().toString());
+            try (Stream<Path> walk = Files.walk(f.root)) {
+                for (Iterator<Path> it = walk.iterator(); it.hasNext(); ) {
+                    Path p = it.next();
+                    BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                    if (attrs.isDirectory()) {
+                        watch(f, p);
+                        continue;
+                    }
+                    String name = p.getFileName().toString().toLowerCase(Locale.ROOT);
+                    if (htmlPath == null && name.endsWith(".html")) htmlPath = p;
+                    if (cssPath == null && name.endsWith(".css")) cssPath = p;
+                    fingerprint.add(f.root.relativize(p).toString())
+                            .add(attrs.size() + ":" + attrs.lastModifiedTime().toMillis());
+                }
+            }
+            if (htmlPath == null) {
+                throw new FileNotFoundException("No HTML file found in folder " + f.root);
+            }
+
+            String html = Files.readString(htmlPath, StandardCharsets.UTF_8);
+            String css = cssPath != null ? Files.readString(cssPath, StandardCharsets.UTF_8) : "";
+            CompiledTemplate template = HtmlToPdfService.compile(
+                    fingerprint.hex(),
+                    html,
+                    css,
+                    // unchanged images are not re-read when an edit recompiles the folder
+                    resourceCache.cached("folder", insideRoot(
+                            HtmlToPdfService.fileResolver(htmlPath.getParent().toUri().toString())))
+            );
+            log.info("Compiled folder template {} ({} images) in {} ms", f.root, template.imageCount(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return template;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // model-driven image sources must not reach files outside the root
+    private FileResourceResolver insideRoot(FileResourceResolver files) {
+        return src -> {
+            Path file = files.pathOf(src).toAbsolutePath().normalize();
+            if (!file.startsWith(allowedRoot)) {
+                throw new FileNotFoundException("Outside fileservice.render.folders.root: " + src);
+            }
+            return file;
+        };
+    }
+
+    private void watch(Folder f, Path dir) throws IOException {
+        WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        synchronized (folders) {
+            if (folders.get(f.root) != f) {
+                // evicted while compiling
+                key.cancel();
+                return;
+            }
+            if (!f.keys.contains(key)) {
+                f.keys.add(key);
+            }
+            watchedRoots.put(key, f.root);
+        }
+    }
+
+    private void unwatch(Folder f) {
+        for (WatchKey key : f.keys) {
+            watchedRoots.remove(key);
+            key.cancel();
+        }
+        f.keys.clear();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Set<Path> changed = new HashSet<>();
+                while (key != null) {
+                    key.pollEvents();
+                    Path root = watchedRoots.get(key);
+                    if (root != null) {
+                        changed.add(root);
+                    }
+                    if (!key.reset()) {
+                        watchedRoots.remove(key);
+                    }
+                    key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                changed.forEach(this::reload);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    private void reload(Path root) {
+        synchronized (folders) {
+            Folder f = folders.get(root);
+            if (f == null) {
+                return;
+            }
+            if (!Files.isDirectory(root)) {
+                unwatch(f);
+                folders.remove(root);
+                log.info("Folder template {} was removed", root);
+                return;
+            }
+            log.info("Folder template {} changed; recompiling", root);
+            f.current = compileAsync(f);
+        }
+    }
+}
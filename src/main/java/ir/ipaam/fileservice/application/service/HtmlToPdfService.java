@@ -33,6 +33,7 @@ import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
 import java.util.*;
 import java.util.List;
+import java.util.function.IntPredicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -52,6 +53,9 @@ import static org.apache.batik.ext.awt.image.GraphicsUtil.createGraphics;
 public class HtmlToPdfService {
 
     // ---- Page & layout defaults ----
+    /** Part of the result cache key; bump when renderer output changes for the same input. */
+    public static final String ENGINE_OPTIONS = "raster;a4;dpi=150;lossless;v1";
+
     private static final double RENDER_DPI = 300.0;
     private static final double LAYOUT_DPI = 150.0;
     private static final double DPI = 150.0;                  // Image render DPI
@@ -73,7 +77,7 @@ public class HtmlToPdfService {
     private static final int MARGIN_TOP_IMG = ptToImg(MARGIN_TOP_PT);
     private static final int MARGIN_BOTTOM_IMG = ptToImg(MARGIN_BOTTOM_PT);
 
-    private static final int CONTENT_W_IMG = PAGE_WIDTH_IMG - MARGIN_LEFT_IMG - MARGIN_RIGHT_IMG;
+    static final int CONTENT_W_IMG = PAGE_WIDTH_IMG - MARGIN_LEFT_IMG - MARGIN_RIGHT_IMG;
     private static final int PARAGRAPH_SPACING_IMG = scalePxToImg(8);
 
     // ---- Font resources (class-path) ----
@@ -81,11 +85,20 @@ public class HtmlToPdfService {
     private static final String FONT_BOLD    = "/fonts/Vazirmatn-Bold.ttf";
     private static final String FONT_ITALIC  = "/fonts/Vazirmatn-Italic.ttf";
 
+    // ---- Memory estimation for admission control ----
+    private static final long PAGE_RASTER_BYTES = (long) PAGE_WIDTH_IMG * PAGE_HEIGHT_IMG * 4;   // TYPE_INT_RGB
+    private static final long PAGE_ENCODE_BYTES = (long) PAGE_WIDTH_IMG * PAGE_HEIGHT_IMG * 3;   // LosslessFactory RGB copy
+    private static final int BLOCKS_PER_PAGE_ESTIMATE = 16;
+
     private final Font fontRegular;
     private final Font fontBold;
     private final Font fontItalic;
+    private final RenderAdmissionController admission;
+    private final ResourceResolver chrome;    // header and footer artwork, same for every document
 
-    public HtmlToPdfService() {
+    public HtmlToPdfService(RenderAdmissionController admission, ResourceCache resourceCache) {
+        this.admission = admission;
+        this.chrome = resourceCache.cached("classpath:morabehe", classpathResolver("morabehe"));
         this.fontRegular = loadFontOrFallback(FONT_REGULAR, Font.PLAIN);
         this.fontBold    = loadFontOrFallback(FONT_BOLD, Font.BOLD);
         this.fontItalic  = loadFontOrFallback(FONT_ITALIC, Font.ITALIC);
@@ -113,6 +126,22 @@ public class HtmlToPdfService {
         return out.toString();
     }
 
+    /**
+     * {@link #renderTemplate} for text that goes straight into a DOM node rather than into
+     * markup: values are inserted as they are, since there is nothing to escape them for.
+     */
+    public static String renderText(String text, Map<String, Object> model) {
+        if (text == null) return "";
+        Matcher m = PLACEHOLDER.matcher(text);
+        StringBuilder out = new StringBuilder(text.length() + 64);
+        while (m.find()) {
+            Object val = lookup(model, m.group(1));
+            m.appendReplacement(out, Matcher.quoteReplacement(toPersianDigits(val == null ? "" : String.valueOf(val))));
+        }
+        m.appendTail(out);
+        return out.toString();
+    }
+
     @SuppressWarnings("unchecked")
     private static Object lookup(Map<String, Object> root, String path) {
         if (root == null || path == null) return null;
@@ -147,6 +176,21 @@ public class HtmlToPdfService {
 
 
     public byte[] convertXhtmlToPdf(InputStream htmlIn, InputStream cssIn, Map<String, Object> model, ResourceResolver rr) {
+        return convertXhtmlToPdf(htmlIn, cssIn, model, rr, RenderContext.unbounded());
+    }
+
+    public byte[] convertXhtmlToPdf(InputStream htmlIn, InputStream cssIn, Map<String, Object> model,
+                                    ResourceResolver rr, RenderContext ctx) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        convertXhtmlToPdf(htmlIn, cssIn, model, rr, ctx, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Renders straight into {@code out}; the PDF is never held as a whole on the heap.
+     */
+    public void convertXhtmlToPdf(InputStream htmlIn, InputStream cssIn, Map<String, Object> model,
+                                  ResourceResolver rr, RenderContext ctx, OutputStream out) {
         Objects.requireNonNull(htmlIn, "htmlIn");
         Objects.requireNonNull(cssIn, "cssIn");
         Objects.requireNonNull(rr, "resolver");
@@ -156,10 +200,13 @@ public class HtmlToPdfService {
             html = stripUtf8Bom(html);
             css  = stripUtf8Bom(css);
 
-            String merged   = mergeHtmlAndCss(html, css);
-            String rendered = (model == null || model.isEmpty()) ? merged : renderTemplate(merged, model);
+            String rendered;
+            try (RenderContext.Stage ignored = ctx.stage("substitute")) {
+                String merged = mergeHtmlAndCss(html, css);
+                rendered = (model == null || model.isEmpty()) ? merged : renderTemplate(merged, model);
+            }
 
-            return convertXhtmlToPdf(rendered, rr);
+            convertXhtmlToPdf(rendered, rr, ctx, out);
         }
         catch (IOException e) {
             throw new UncheckedIOException("Failed reading HTML/CSS", e);
@@ -167,21 +214,191 @@ public class HtmlToPdfService {
     }
 
     public byte[] convertXhtmlToPdf(String xhtml, ResourceResolver rr) throws IOException {
-        xhtml = sanitizeEntities(xhtml);
-        xhtml = fixUnclosedPTags(xhtml);
+        return convertXhtmlToPdf(xhtml, rr, RenderContext.unbounded());
+    }
+
+    public byte[] convertXhtmlToPdf(String xhtml, ResourceResolver rr, RenderContext ctx) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        convertXhtmlToPdf(xhtml, rr, ctx, out);
+        return out.toByteArray();
+    }
+
+    public void convertXhtmlToPdf(String xhtml, ResourceResolver rr, RenderContext ctx, OutputStream out) throws IOException {
+        ctx.checkpoint();
+        try (RenderContext.Stage ignored = ctx.stage("normalize")) {
+            xhtml = sanitizeEntities(xhtml);
+            xhtml = fixUnclosedPTags(xhtml);
+        }
 
         try {
-            Document doc = parseXhtml(xhtml);
-            CssEngine css = CssEngine.from(doc);
-            List<Block> blocks = extractBlocks(doc.getDocumentElement(), css, rr);
-            List<BufferedImage> pages = renderBlocksToPages(blocks);
-            return buildPdfFromJpegs(pages);
+            Document doc;
+            try (RenderContext.Stage ignored = ctx.stage("parse")) {
+                doc = parseXhtml(xhtml);
+            }
+            CssEngine css;
+            try (RenderContext.Stage ignored = ctx.stage("css")) {
+                css = CssEngine.from(doc);
+            }
+            renderDocument(doc, css, rr, ctx, out);
+        } catch (RenderRejectedException | RenderCancelledException e) {
+            throw e;
         } catch (Exception e) {
             throw new IllegalStateException("Failed to convert XHTML to PDF: " + e.getMessage(), e);
         }
     }
 
-    private Document parseXhtml(String xhtml) {
+    /**
+     * Does the model-independent work once: merges and normalizes the markup, parses the
+     * stylesheet and decodes every statically referenced image. Renders of the result only
+     * substitute the model and lay out; images whose source comes from the model are read
+     * through {@code rr} when rendered.
+     */
+    public static CompiledTemplate compile(String id, String html, String css, ResourceResolver rr) {
+        return compile(id, html, css, rr, rr);
+    }
+
+    /**
+     * As {@link #compile(String, String, String, ResourceResolver)}, for sources that are only
+     * readable while compiling: {@code rr} serves the compile and {@code renderResources} the
+     * model-driven images of later renders.
+     */
+    public static CompiledTemplate compile(String id, String html, String css, ResourceResolver rr,
+                                           ResourceResolver renderResources) {
+        Objects.requireNonNull(rr, "resolver");
+        // named spaces that sanitizeEntities does not know, as the folder and ZIP handlers used to map
+        html = stripUtf8Bom(html).replace("&ensp;", "&#8194;").replace("&emsp;", "&#8195;");
+        String xhtml = fixUnclosedPTags(sanitizeEntities(mergeHtmlAndCss(html, stripUtf8Bom(css))));
+        Document doc = parseXhtml(xhtml);
+
+        Map<String, BufferedImage> images = new HashMap<>();
+        NodeList imgs = doc.getElementsByTagName("img");
+        for (int i = 0; i < imgs.getLength(); i++) {
+            String src = ((Element) imgs.item(i)).getAttribute("src");
+            if (src == null || src.isBlank() || src.contains("{{") || src.trim().startsWith("data:")) continue;
+            String key = imageKey(src);
+            if (images.containsKey(key)) continue;
+            try {
+                BufferedImage bi = readImage(src, rr);
+                if (bi != null) images.put(key, bi);
+            } catch (IOException | RuntimeException ignore) {
+                // a missing or undecodable image is skipped, as in a render
+            }
+        }
+
+        List<CompiledTemplate.Placeholder> placeholders = new ArrayList<>();
+        Matcher m = PLACEHOLDER.matcher(xhtml);
+        while (m.find()) {
+            placeholders.add(new CompiledTemplate.Placeholder(m.start(), m.end(), m.group(1), m.group(2) != null));
+        }
+
+        return new CompiledTemplate(id, xhtml, placeholders, CssEngine.from(doc), images, renderResources);
+    }
+
+    public void render(CompiledTemplate template, Map<String, Object> model, RenderContext ctx, OutputStream out) {
+        render(template, model, null, ctx, out);
+    }
+
+    /**
+     * Lays out and paginates the whole template but draws only the pages of {@code preview},
+     * which come out as PNG thumbnails or a PDF of those pages.
+     */
+    public void preview(CompiledTemplate template, Map<String, Object> model, PagePreview preview, RenderContext ctx,
+                        OutputStream out) {
+        render(template, model, preview, ctx, out);
+    }
+
+    private void render(CompiledTemplate template, Map<String, Object> model, PagePreview preview, RenderContext ctx,
+                        OutputStream out) {
+        ctx.checkpoint();
+        ctx.templateId(template.id());
+        String xhtml;
+        try (RenderContext.Stage ignored = ctx.stage("substitute")) {
+            xhtml = (model == null || model.isEmpty()) ? template.xhtml() : substitute(template, model);
+            if (template.rawPlaceholders()) {
+                // raw values bypass escaping, so they may bring their own entities
+                xhtml = sanitizeEntities(xhtml);
+            }
+        }
+        try {
+            Document doc;
+            try (RenderContext.Stage ignored = ctx.stage("parse")) {
+                doc = parseXhtml(xhtml);
+            }
+            if (preview == null) {
+                renderDocument(doc, template.css(), template.resolver(), ctx, out);
+            } else {
+                previewDocument(doc, template.css(), template.resolver(), preview, ctx, out);
+            }
+        } catch (RenderRejectedException | RenderCancelledException | InvalidPreviewException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to convert XHTML to PDF: " + e.getMessage(), e);
+        }
+    }
+
+    // renderTemplate over the placeholder positions found at compile time; no regex per render
+    private static String substitute(CompiledTemplate template, Map<String, Object> model) {
+        String xhtml = template.xhtml();
+        StringBuilder out = new StringBuilder(xhtml.length() + 1024);
+        int pos = 0;
+        for (CompiledTemplate.Placeholder p : template.placeholders()) {
+            out.append(xhtml, pos, p.start());
+            Object val = lookup(model, p.key());
+            String s = toPersianDigits(val == null ? "" : String.valueOf(val));
+            out.append(p.raw() ? s : htmlEscape(s));
+            pos = p.end();
+        }
+        return out.append(xhtml, pos, xhtml.length()).toString();
+    }
+
+    private void renderDocument(Document doc, CssEngine css, ResourceResolver rr, RenderContext ctx, OutputStream out)
+            throws IOException {
+        List<Block> blocks = extract(doc, css, rr, ctx);
+        try (RenderAdmissionController.Reservation ignored =
+                     admission.reserve(estimateRasterBytes(blocks, Integer.MAX_VALUE), ctx)) {
+            List<BufferedImage> pages = renderBlocksToPages(blocks, ctx);
+            buildPdfFromJpegs(pages, ctx, out);
+        }
+    }
+
+    private void previewDocument(Document doc, CssEngine css, ResourceResolver rr, PagePreview preview,
+                                 RenderContext ctx, OutputStream out) throws IOException {
+        List<Block> blocks = extract(doc, css, rr, ctx);
+        int maxPages = (int) preview.pages().count();
+        try (RenderAdmissionController.Reservation ignored =
+                     admission.reserve(estimateRasterBytes(blocks, maxPages), ctx)) {
+            List<BufferedImage> pages = renderBlocksToPages(blocks, preview::contains, ctx);
+            if (preview.format() == PagePreview.Format.PDF) {
+                PreviewWriter.requirePages(pages.size(), preview);
+                buildPdfFromJpegs(pages, ctx, out);
+            } else {
+                PreviewWriter.writeImages(pages, DPI, preview, ctx, out);
+            }
+        }
+    }
+
+    private List<Block> extract(Document doc, CssEngine css, ResourceResolver rr, RenderContext ctx) {
+        List<Block> blocks;
+        try (RenderContext.Stage ignored = ctx.stage("extract")) {
+            blocks = extractBlocks(doc.getDocumentElement(), css, rr, ctx);
+        }
+        ctx.count("blocks", blocks.size());
+        ctx.count("spans", blocks.stream().mapToLong(b -> b.spans.size()).sum());
+        return blocks;
+    }
+
+    // Every drawn page stays rasterized until the PDF is saved, so the footprint grows with page count
+    private static long estimateRasterBytes(List<Block> blocks, int maxPages) {
+        int pages = Math.max(1, Math.min(maxPages,
+                (blocks.size() + BLOCKS_PER_PAGE_ESTIMATE - 1) / BLOCKS_PER_PAGE_ESTIMATE));
+        long imageBytes = 0;
+        for (Block b : blocks) {
+            if (b.image != null) imageBytes += (long) b.image.getWidth() * b.image.getHeight() * 4;
+        }
+        return pages * PAGE_RASTER_BYTES + PAGE_ENCODE_BYTES + imageBytes;
+    }
+
+    static Document parseXhtml(String xhtml) {
         try {
             var dbf = DocumentBuilderFactory.newInstance();
             dbf.setNamespaceAware(true);
@@ -194,13 +411,13 @@ public class HtmlToPdfService {
         }
     }
 
-    private List<Block> extractBlocks(Element root, CssEngine css, ResourceResolver rr) {
+    List<Block> extractBlocks(Element root, CssEngine css, ResourceResolver rr, RenderContext ctx) {
         List<Block> out = new ArrayList<>();
-        walk(root, new Style(), out, css, rr);
+        walk(root, new Style(), out, css, rr, ctx);
         return out;
     }
 
-    private void walk(Node node, Style inherited, List<Block> out, CssEngine css, ResourceResolver rr) {
+    private void walk(Node node, Style inherited, List<Block> out, CssEngine css, ResourceResolver rr, RenderContext ctx) {
         if (node.getNodeType() == Node.TEXT_NODE) {
             String txt = normalizeSpaces(node.getTextContent());
             if (!txt.isEmpty()) {
@@ -215,10 +432,11 @@ public class HtmlToPdfService {
         }
         if (node.getNodeType() != Node.ELEMENT_NODE) {
             NodeList ch = node.getChildNodes();
-            for (int i = 0; i < ch.getLength(); i++) walk(ch.item(i), inherited, out, css, rr);
+            for (int i = 0; i < ch.getLength(); i++) walk(ch.item(i), inherited, out, css, rr, ctx);
             return;
         }
 
+        ctx.checkpoint();
         Element el = (Element) node;
         String tag = el.getTagName().toLowerCase(Locale.ROOT);
 
@@ -228,8 +446,8 @@ public class HtmlToPdfService {
             case "img": {
                 String src = el.getAttribute("src");
                 if (src != null && !src.isBlank()) {
-                    try (InputStream in = openImage(src, rr)) {
-                        BufferedImage bi = ImageIO.read(in);
+                    try {
+                        BufferedImage bi = readImage(src, rr);
                         if (bi != null) {
                             Block b = new Block();
                             b.align = inherited.textAlign != null ? inherited.textAlign : "right";
@@ -302,7 +520,7 @@ public class HtmlToPdfService {
             case "th":
             case "table": {
                 NodeList ch = el.getChildNodes();
-                for (int i = 0; i < ch.getLength(); i++) walk(ch.item(i), current, out, css, rr);
+                for (int i = 0; i < ch.getLength(); i++) walk(ch.item(i), current, out, css, rr, ctx);
                 break;
             }
 
@@ -332,28 +550,47 @@ public class HtmlToPdfService {
             // ---- default: container-ish; recurse ----
             default: {
                 NodeList ch = el.getChildNodes();
-                for (int i = 0; i < ch.getLength(); i++) walk(ch.item(i), current, out, css, rr);
+                for (int i = 0; i < ch.getLength(); i++) walk(ch.item(i), current, out, css, rr, ctx);
             }
         }
 
     }
 
+    private BufferedImage readChromeImage(String src) throws IOException {
+        try {
+            return chrome.readImage(src);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
     private static int parseIntPxAttr(String v) {
         v = v.trim().toLowerCase(Locale.ROOT);
         if (v.endsWith("px")) v = v.substring(0, v.length()-2);
         return Integer.parseInt(v.replaceAll("[^0-9]", ""));
     }
 
-    private static InputStream openImage(String src, ResourceResolver rr) throws IOException {
+    private static BufferedImage readImage(String src, ResourceResolver rr) throws IOException {
         src = src.trim();
         if (src.startsWith("data:image/")) {
             // basic data URI support (optional)
             int comma = src.indexOf(',');
             String base64 = comma >= 0 ? src.substring(comma + 1) : "";
-            byte[] bytes = Base64.getDecoder().decode(base64);
-            return new ByteArrayInputStream(bytes);
+            byte[] bytes;
+            try {
+                bytes = Base64.getDecoder().decode(base64);
+            } catch (IllegalArgumentException e) {
+                // a model-supplied URI can be anything; skipped like any undecodable image
+                throw new IOException("Invalid data URI: " + e.getMessage(), e);
+            }
+            return ImageIO.read(new ByteArrayInputStream(bytes));
         }
-        return rr.open(src.startsWith("./") ? src.substring(2) : src);
+        return rr.readImage(imageKey(src));
+    }
+
+    static String imageKey(String src) {
+        src = src.trim();
+        return src.startsWith("./") ? src.substring(2) : src;
     }
 
 
@@ -377,16 +614,16 @@ public class HtmlToPdfService {
         return s == null ? "" : s.replace('\u00A0', ' ').replaceAll("\\s+", " ").trim();
     }
 
-    private List<BufferedImage> renderBlocksToPages(List<Block> blocks) throws IOException {
+    List<BufferedImage> renderBlocksToPages(List<Block> blocks, RenderContext ctx) throws IOException {
+        return renderBlocksToPages(blocks, page -> true, ctx);
+    }
 
-        BufferedImage headerImage = null;
-        BufferedImage footerImage = null;
-        try (InputStream in = HtmlToPdfService.class.getResourceAsStream("/morabehe/images/logo.png")) {
-            if (in != null) headerImage = ImageIO.read(in);
-        }
-        try (InputStream in = HtmlToPdfService.class.getResourceAsStream("/morabehe/images/sign.png")) {
-            if (in != null) footerImage = ImageIO.read(in);
-        }
+    // Paginates every block but draws, and returns, only the pages whose 1-based number is selected
+    List<BufferedImage> renderBlocksToPages(List<Block> blocks, IntPredicate selected, RenderContext ctx)
+            throws IOException {
+
+        BufferedImage headerImage = readChromeImage("images/logo.png");
+        BufferedImage footerImage = readChromeImage("images/sign.png");
 
         // === Layout constants ===
         final int HEADER_HEIGHT = headerImage != null ? headerImage.getHeight() + 40 : 120;
@@ -400,115 +637,141 @@ public class HtmlToPdfService {
         Graphics2D g = createGraphics(page);
         drawHeaderAndFooter(g, headerImage, footerImage, pageIndex);
         boolean pageHasContent = false;
+        // the number the current page gets if it is kept; pages left empty are dropped
+        int pageNumber = 1;
 
         List<BufferedImage> pages = new ArrayList<>();
 
         List<List<Line>> blockLines = new ArrayList<>(blocks.size());
+        long lineCount = 0;
         List<Integer> blockHeights = new ArrayList<>(blocks.size());
-        for (Block b : blocks) {
-            if (b.image != null) {
-                blockLines.add(Collections.emptyList());
-                int[] wh = measureImageDisplayWH(b.image.getWidth(), b.image.getHeight(),
-                        b.imgAttrWidthPx, b.imgAttrHeightPx, CONTENT_W_IMG);
-                blockHeights.add(wh[1]); // display height
-            } else {
-                List<Line> lines = layoutBlockToLines(g, b, CONTENT_W_IMG);
-                blockLines.add(lines);
-                blockHeights.add(lines.stream().mapToInt(line -> line.height).sum());
+        try (RenderContext.Stage ignored = ctx.stage("layout")) {
+            for (Block b : blocks) {
+                ctx.checkpoint();
+                if (b.image != null) {
+                    blockLines.add(Collections.emptyList());
+                    int[] wh = measureImageDisplayWH(b.image.getWidth(), b.image.getHeight(),
+                            b.imgAttrWidthPx, b.imgAttrHeightPx, CONTENT_W_IMG);
+                    blockHeights.add(wh[1]); // display height
+                } else {
+                    List<Line> lines = layoutBlockToLines(g, b, CONTENT_W_IMG);
+                    blockLines.add(lines);
+                    lineCount += lines.size();
+                    blockHeights.add(lines.stream().mapToInt(line -> line.height).sum());
+                }
             }
         }
+        ctx.count("lines", lineCount);
         int maxContentBottom = PAGE_HEIGHT_IMG - MARGIN_BOTTOM_IMG;
-
-        for (int i = 0; i < blocks.size(); i++) {
-            Block block = blocks.get(i);
-            List<Line> lines = blockLines.get(i);
-            int blockHeight = blockHeights.get(i);
-
-            int topM = Math.round(block.marginTopPx);
-            int bottomM = Math.round(block.marginBottomPx);
-            int required = topM + blockHeight + bottomM;
-
-            if (y + required > maxContentBottom) {
-                g.dispose();
-                if (pageHasContent) pages.add(page);
-                pageIndex++;
-                page = newPageImage();
-                g = prepG(page);
-                drawHeaderAndFooter(g, headerImage, footerImage, pageIndex);
-                y =  MARGIN_TOP_IMG + 40;
-                pageHasContent = false;
-            }
-
-            // top margin (even if no lines)
-            if (topM > 0) {
-                y += topM;
-                pageHasContent = true;
-            }
-            // draw lines (if any)
-            if (block.image != null) {
-                int[] wh = measureImageDisplayWH(block.image.getWidth(), block.image.getHeight(),
-                        block.imgAttrWidthPx, block.imgAttrHeightPx, CONTENT_W_IMG);
-
-                int drawW = wh[0];
-                int drawH = wh[1];
-
-                int x;
-                if ("center".equalsIgnoreCase(block.align)) {
-                    x = MARGIN_LEFT_IMG + (CONTENT_W_IMG - drawW) / 2;
-                } else if ("left".equalsIgnoreCase(block.align)) {
-                    x = MARGIN_LEFT_IMG;
-                } else { // default right-align
-                    x = PAGE_WIDTH_IMG - MARGIN_RIGHT_IMG - drawW;
+        boolean drawing = selected.test(pageNumber);
+
+        try (RenderContext.Stage ignored = ctx.stage("rasterize")) {
+            for (int i = 0; i < blocks.size(); i++) {
+                ctx.checkpoint();
+                Block block = blocks.get(i);
+                List<Line> lines = blockLines.get(i);
+                int blockHeight = blockHeights.get(i);
+
+                int topM = Math.round(block.marginTopPx);
+                int bottomM = Math.round(block.marginBottomPx);
+                int required = topM + blockHeight + bottomM;
+
+                if (y + required > maxContentBottom) {
+                    if (g != null) g.dispose();
+                    if (pageHasContent) {
+                        if (drawing) pages.add(page);
+                        pageNumber++;
+                    }
+                    pageIndex++;
+                    drawing = selected.test(pageNumber);
+                    page = drawing ? newPageImage() : null;
+                    g = drawing ? prepG(page) : null;
+                    if (drawing) drawHeaderAndFooter(g, headerImage, footerImage, pageIndex);
+                    y =  MARGIN_TOP_IMG + 40;
+                    pageHasContent = false;
                 }
 
-                g.drawImage(block.image, x, y, drawW, drawH, null);
-                y += drawH;
-                pageHasContent = true;
-                continue;
-            }
-
-            for (Line line : lines) {
-                if (y + line.height > maxContentBottom) {
-                    g.dispose();
-                    if (pageHasContent) pages.add(page);
-                    page = newPageImage();
-                    g = prepG(page);
-                    y = MARGIN_TOP_IMG;
-                    pageHasContent = false;
+                // top margin (even if no lines)
+                if (topM > 0) {
+                    y += topM;
+                    pageHasContent = true;
                 }
+                // draw lines (if any)
+                if (block.image != null) {
+                    int[] wh = measureImageDisplayWH(block.image.getWidth(), block.image.getHeight(),
+                            block.imgAttrWidthPx, block.imgAttrHeightPx, CONTENT_W_IMG);
+
+                    int drawW = wh[0];
+                    int drawH = wh[1];
+
+                    int x;
+                    if ("center".equalsIgnoreCase(block.align)) {
+                        x = MARGIN_LEFT_IMG + (CONTENT_W_IMG - drawW) / 2;
+                    } else if ("left".equalsIgnoreCase(block.align)) {
+                        x = MARGIN_LEFT_IMG;
+                    } else { // default right-align
+                        x = PAGE_WIDTH_IMG - MARGIN_RIGHT_IMG - drawW;
+                    }
 
-                int x;
-                if ("justify".equalsIgnoreCase(line.align) && line.layout != null) {
-                    boolean ltr = line.layout.isLeftToRight();
-                    x = ltr ? MARGIN_LEFT_IMG : PAGE_WIDTH_IMG - MARGIN_RIGHT_IMG - CONTENT_W_IMG;
-                } else if ("center".equalsIgnoreCase(line.align)) {
-                    x = MARGIN_LEFT_IMG + (CONTENT_W_IMG - line.width) / 2;
-                } else if ("right".equalsIgnoreCase(line.align)) {
-                    x = PAGE_WIDTH_IMG - MARGIN_RIGHT_IMG - line.width;
-                } else {
-                    x = MARGIN_LEFT_IMG;
+                    if (drawing) g.drawImage(block.image, x, y, drawW, drawH, null);
+                    y += drawH;
+                    pageHasContent = true;
+                    continue;
                 }
 
-                int baseline = y + line.ascent;
-                if (line.layout != null) line.layout.draw(g, x, baseline);
-                else if (line.text != null) g.drawString(line.text, x, baseline);
+                for (Line line : lines) {
+                    if (y + line.height > maxContentBottom) {
+                        if (g != null) g.dispose();
+                        if (pageHasContent) {
+                            if (drawing) pages.add(page);
+                            pageNumber++;
+                        }
+                        drawing = selected.test(pageNumber);
+                        page = drawing ? newPageImage() : null;
+                        g = drawing ? prepG(page) : null;
+                        y = MARGIN_TOP_IMG;
+                        pageHasContent = false;
+                    }
 
-                y += line.height;
-                pageHasContent = true;
-            }
+                    int x;
+                    if ("justify".equalsIgnoreCase(line.align) && line.layout != null) {
+                        boolean ltr = line.layout.isLeftToRight();
+                        x = ltr ? MARGIN_LEFT_IMG : PAGE_WIDTH_IMG - MARGIN_RIGHT_IMG - CONTENT_W_IMG;
+                    } else if ("center".equalsIgnoreCase(line.align)) {
+                        x = MARGIN_LEFT_IMG + (CONTENT_W_IMG - line.width) / 2;
+                    } else if ("right".equalsIgnoreCase(line.align)) {
+                        x = PAGE_WIDTH_IMG - MARGIN_RIGHT_IMG - line.width;
+                    } else {
+                        x = MARGIN_LEFT_IMG;
+                    }
+
+                    int baseline = y + line.ascent;
+                    if (drawing) {
+                        if (line.layout != null) line.layout.draw(g, x, baseline);
+                        else if (line.text != null) g.drawString(line.text, x, baseline);
+                    }
 
-            // bottom margin (even if no lines)
-            if (bottomM > 0) {
-                y += bottomM;
-                pageHasContent = true;
+                    y += line.height;
+                    pageHasContent = true;
+                }
+
+                // bottom margin (even if no lines)
+                if (bottomM > 0) {
+                    y += bottomM;
+                    pageHasContent = true;
+                }
             }
-        }
 
 
-        g.dispose();
-        if (pageHasContent || pages.isEmpty()) {
-            pages.add(page);
+            if (g != null) g.dispose();
+            // an empty document still gets its first page
+            if (pageHasContent || pageNumber == 1) {
+                if (drawing) pages.add(page);
+            } else {
+                pageNumber--;
+            }
         }
+        ctx.count("pages", pageNumber);
 
         return pages;
     }
@@ -599,7 +862,7 @@ public class HtmlToPdfService {
     }
 
     // Layout a block into wrapped lines using Java line breaking (RTL supported)
-    private List<Line> layoutBlockToLines(Graphics2D g, Block b, int maxWidth) {
+    List<Line> layoutBlockToLines(Graphics2D g, Block b, int maxWidth) {
         // Build one AttributedString across all spans
         StringBuilder sb = new StringBuilder();
         List<SpanRun> runs = new ArrayList<>();
@@ -765,25 +1028,29 @@ public class HtmlToPdfService {
 
     // ---------- PDF building (images -> pages) ----------
 
-    private byte[] buildPdfFromJpegs(List<BufferedImage> pages) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        PDDocument doc = new PDDocument();
+    void buildPdfFromJpegs(List<BufferedImage> pages, RenderContext ctx, OutputStream out) throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            for (BufferedImage img : pages) {
+                ctx.checkpoint();
+                PDPage page = new PDPage(new PDRectangle(PAGE_WIDTH, PAGE_HEIGHT));
+                doc.addPage(page);
 
-        for (BufferedImage img : pages) {
-            PDPage page = new PDPage(new PDRectangle(PAGE_WIDTH, PAGE_HEIGHT));
-            doc.addPage(page);
+                PDImageXObject pdImage;
+                try (RenderContext.Stage ignored = ctx.stage("encode")) {
+                    pdImage = LosslessFactory.createFromImage(doc, img);
+                }
+                try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+                    double scale = 72.0 / RENDER_DPI; // use RENDER_DPI here, not LAYOUT_DPI
+                    float drawW = (float) (PAGE_WIDTH_IMG * (RENDER_DPI / LAYOUT_DPI) * scale);
+                    float drawH = (float) (PAGE_HEIGHT_IMG * (RENDER_DPI / LAYOUT_DPI) * scale);
+                    content.drawImage(pdImage, 0, 0, drawW, drawH);            }
+            }
 
-            PDImageXObject pdImage = LosslessFactory.createFromImage(doc, img);
-            try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
-                double scale = 72.0 / RENDER_DPI; // use RENDER_DPI here, not LAYOUT_DPI
-                float drawW = (float) (PAGE_WIDTH_IMG * (RENDER_DPI / LAYOUT_DPI) * scale);
-                float drawH = (float) (PAGE_HEIGHT_IMG * (RENDER_DPI / LAYOUT_DPI) * scale);
-                content.drawImage(pdImage, 0, 0, drawW, drawH);            }
+            // closed on every path so an abandoned render does not leak the document
+            try (RenderContext.Stage ignored = ctx.stage("write")) {
+                doc.save(ctx.guard(out));
+            }
         }
-
-        doc.save(out);
-        doc.close();
-        return out.toByteArray();
     }
 
     // ---------- Font loading ----------
@@ -821,7 +1088,7 @@ public class HtmlToPdfService {
                     + htmlContent + "\n</body></html>";
         }
     }
-    private static String sanitizeEntities(String html) {
+    static String sanitizeEntities(String html) {
         if (html == null) return "";
         // Replace common HTML named entities with XML-safe equivalents
         return html
@@ -834,7 +1101,7 @@ public class HtmlToPdfService {
                 .replaceAll("&(?!#?[a-zA-Z0-9]+;)", "&amp;");
     }
 
-    private static String fixUnclosedPTags(String html) {
+    static String fixUnclosedPTags(String html) {
         // Close <p> tags that are opened but not properly closed before another <p> or block tag
         return html
                 .replaceAll("(?i)<p([^>]*)>(.*?)((?=<p)|(?=<div)|(?=<table)|(?=<body)|(?=<html)|(?=$))", "<p$1>$2</p>");
@@ -843,9 +1110,9 @@ public class HtmlToPdfService {
     // Resolve from classpath folder like "pdf/" (so "./images/x.png" -> "pdf/images/x.png")
     public static ResourceResolver classpathResolver(String basePath) {
         String base = basePath == null ? "" : basePath.replace('\\','/').replaceAll("^/+", "").replaceAll("/+$","");
+        String prefix = "/" + (base.isEmpty() ? "" : (base + "/"));
         return (src) -> {
-            String norm = src.replace('\\','/').replaceAll("^\\./", "");
-            String full = "/" + (base.isEmpty() ? "" : (base + "/")) + norm;
+            String full = prefix + stripDotSlash(src.replace('\\','/'));
             InputStream in = HtmlToPdfService.class.getResourceAsStream(full);
             if (in == null) throw new FileNotFoundException("Not found on classpath: " + full);
             return in;
@@ -853,32 +1120,32 @@ public class HtmlToPdfService {
     }
 
     // Resolve from filesystem directory (so "./images/x.png" resolved under that dir)
-    public static ResourceResolver filesystemResolver(java.nio.file.Path baseDir) {
-        return (src) -> {
-            String norm = src.replace('\\','/').replaceAll("^\\./", "");
-            java.nio.file.Path p = baseDir.resolve(norm).normalize();
-            return java.nio.file.Files.newInputStream(p);
-        };
+    public static FileResourceResolver filesystemResolver(Path baseDir) {
+        return (src) -> baseDir.resolve(stripDotSlash(src.replace('\\','/'))).normalize();
     }
 
-    public static ResourceResolver fileResolver(String baseUri) {
+    // file: URIs as they are; anything else relative to baseUri
+    public static FileResourceResolver fileResolver(String baseUri) {
+        Path base = baseUri == null || baseUri.isEmpty() ? null : Paths.get(URI.create(baseUri));
         return uri -> {
             try {
-                URI resolvedUri = URI.create(uri);
-                Path path;
-                if (resolvedUri.isAbsolute() && "file".equals(resolvedUri.getScheme())) {
-                    path = Paths.get(resolvedUri);
-                } else {
-                    // Relative path → resolve against base folder
-                    path = Paths.get(URI.create(baseUri)).resolve(uri).normalize();
+                if (uri.startsWith("file:")) {
+                    return Paths.get(URI.create(uri));
                 }
-                return Files.newInputStream(path);
-            } catch (Exception e) {
-                throw new RuntimeException("Could not resolve resource: " + uri, e);
+                if (base == null || uri.contains("://")) {
+                    throw new FileNotFoundException("Could not resolve resource: " + uri);
+                }
+                return base.resolve(uri).normalize();
+            } catch (IllegalArgumentException e) {   // malformed URI or path
+                throw new FileNotFoundException("Could not resolve resource: " + uri);
             }
         };
     }
 
+    private static String stripDotSlash(String path) {
+        return path.startsWith("./") ? path.substring(2) : path;
+    }
+
 
 
 
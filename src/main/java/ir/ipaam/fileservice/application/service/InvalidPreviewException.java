@@ -0,0 +1,12 @@
+package ir.ipaam.fileservice.application.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidPreviewException extends RuntimeException {
+
+    public InvalidPreviewException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package ir.ipaam.fileservice.application.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+public class InvalidTemplateException extends RuntimeException {
+
+    public InvalidTemplateException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,14 @@
+package ir.ipaam.fileservice.application.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.util.zip.ZipException;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidZipException extends ZipException {
+
+    public InvalidZipException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,125 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * The pages a preview asks for, as 1-based page numbers, and how to return them: PNG images
+ * at {@link #dpi()} (one image, or a ZIP of {@code page-N.png} when several pages are asked
+ * for) or a PDF of just those pages. The whole document is still laid out and paginated;
+ * only the selected pages are drawn. Pages past the end of the document are skipped.
+ */
+public final class PagePreview {
+
+    public enum Format {
+        PNG, PDF
+    }
+
+    // far beyond any contract; keeps the BitSet small and last + 1 from overflowing
+    private static final int MAX_PAGE_NUMBER = 10_000;
+
+    private final BitSet pages;
+    private final Format format;
+    private final int dpi;
+
+    private PagePreview(BitSet pages, Format format, int dpi) {
+        this.pages = pages;
+        this.format = format;
+        this.dpi = dpi;
+    }
+
+    /**
+     * Reads the request parameters: {@code pages} such as {@code 1} or {@code 1-3,5} (default
+     * page 1), {@code format} {@code png} or {@code pdf} (default png) and the PNG resolution.
+     */
+    public static PagePreview parse(String pages, String format, Integer dpi, RenderProperties.Preview limits) {
+        BitSet selected = new BitSet();
+        int count = 0;
+        for (String part : (pages == null || pages.isBlank() ? "1" : pages).split(",")) {
+            String[] bounds = part.trim().split("-", -1);
+            if (bounds.length > 2) {
+                throw new InvalidPreviewException("Invalid page range " + part.trim());
+            }
+            int first = pageNumber(bounds[0]);
+            int last = bounds.length == 2 ? pageNumber(bounds[1]) : first;
+            if (last < first) {
+                throw new InvalidPreviewException("Invalid page range " + part.trim());
+            }
+            count += last - first + 1;
+            if (count > limits.getMaxPages()) {
+                throw new InvalidPreviewException("A preview has at most " + limits.getMaxPages() + " pages");
+            }
+            selected.set(first, last + 1);
+        }
+        if (selected.isEmpty()) {
+            throw new InvalidPreviewException("Invalid page range " + pages);
+        }
+
+        Format outputFormat;
+        try {
+            outputFormat = format == null ? Format.PNG : Format.valueOf(format.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidPreviewException("format must be png or pdf");
+        }
+
+        int resolution = dpi == null ? limits.getDpi() : dpi;
+        if (resolution < 1 || resolution > limits.getMaxDpi()) {
+            throw new InvalidPreviewException("dpi must be between 1 and " + limits.getMaxDpi());
+        }
+        return new PagePreview(selected, outputFormat, resolution);
+    }
+
+    private static int pageNumber(String s) {
+        try {
+            int page = Integer.parseInt(s.trim());
+            if (page >= 1 && page <= MAX_PAGE_NUMBER) {
+                return page;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new InvalidPreviewException("Invalid page number " + s.trim());
+    }
+
+    public boolean contains(int page) {
+        return pages.get(page);
+    }
+
+    /** The selected page numbers, ascending. */
+    public IntStream pages() {
+        return pages.stream();
+    }
+
+    public Format format() {
+        return format;
+    }
+
+    public int dpi() {
+        return dpi;
+    }
+
+    /** PNG pages come as a ZIP whenever more than one page is asked for, whatever the document has. */
+    public boolean zipped() {
+        return format == Format.PNG && pages.cardinality() > 1;
+    }
+
+    /** File extension of the response. */
+    public String extension() {
+        return format == Format.PDF ? "pdf" : zipped() ? "zip" : "png";
+    }
+
+    /** Canonical form, part of the result cache key. */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("pages=");
+        pages.stream().forEach(page -> s.append(page).append(','));
+        s.setLength(s.length() - 1);
+        s.append(";format=").append(format.name().toLowerCase(Locale.ROOT));
+        if (format == Format.PNG) {
+            s.append(";dpi=").append(dpi);
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,178 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import ir.ipaam.fileservice.domain.dto.PdfGenerationResult;
+import ir.ipaam.fileservice.domain.model.PdfArtifact;
+import ir.ipaam.fileservice.domain.repository.PdfArtifactRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed blob store. A blob lives at {@code <dir>/ab/cd/<sha256>} and is
+ * written once: storing the same bytes again only returns the existing metadata row.
+ * The metadata is in the database every instance shares, so with several instances the
+ * directory has to be shared too; {@link #isAvailable} tells whether this instance can
+ * actually read a blob.
+ */
+@Slf4j
+@Service
+public class PdfArtifactStore {
+
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+
+    private final PdfArtifactRepository repository;
+    private final Path root;
+
+    public PdfArtifactStore(PdfArtifactRepository repository, RenderProperties properties) {
+        this.repository = repository;
+        RenderProperties.Artifacts artifacts = properties.getArtifacts();
+        if (artifacts.getDir() == null || artifacts.getDir().isBlank()) {
+            if (artifacts.isMultiInstance()) {
+                throw new IllegalStateException("fileservice.render.artifacts.dir must be set to a volume shared by "
+                        + "all instances when fileservice.render.artifacts.multi-instance is true");
+            }
+            this.root = Paths.get(System.getProperty("java.io.tmpdir"), "fileservice-artifacts");
+            log.warn("fileservice.render.artifacts.dir is not set; storing artifacts in {}, which only this "
+                    + "instance can read", root);
+        } else {
+            this.root = Paths.get(artifacts.getDir());
+        }
+        try {
+            Files.createDirectories(root);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot initialise artifact store " + root, e);
+        }
+    }
+
+    public PdfArtifact store(InputStream in, String contentType) throws IOException {
+        return store(in::transferTo, contentType);
+    }
+
+    /**
+     * Lets {@code body} write to a temp file while it is hashed, then moves the file into
+     * place under its hash. Nothing is buffered beyond the writer's own buffers, and no
+     * database connection is held while the body is written.
+     */
+    public PdfArtifact store(PdfGenerationResult.Body body, String contentType) throws IOException {
+        Path tmp = Files.createTempFile(root, "upload-", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            long size;
+            try (CountingOutputStream out = new CountingOutputStream(
+                    new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)), digest))) {
+                body.writeTo(out);
+                out.flush();
+                size = out.count;
+            }
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+            Path target = path(sha256);
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            Optional<PdfArtifact> existing = repository.findById(sha256);
+            if (existing.isPresent()) {
+                return existing.get();
+            }
+            PdfArtifact artifact = new PdfArtifact();
+            artifact.setSha256(sha256);
+            artifact.setSizeBytes(size);
+            artifact.setContentType(contentType);
+            artifact.setCreatedAt(Instant.now());
+            return repository.save(artifact);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Transactional(readOnly = true)
+    public Optional<PdfArtifact> find(String sha256) {
+        if (!SHA256_HEX.matcher(sha256).matches()) {
+            return Optional.empty();
+        }
+        return repository.findById(sha256);
+    }
+
+    /** Whether the blob is in this instance's store with the recorded size. */
+    public boolean isAvailable(PdfArtifact artifact) {
+        try {
+            return Files.size(path(artifact.getSha256())) == artifact.getSizeBytes();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Removes artifacts of {@code contentType} created before {@code cutoff} that no render
+     * job refers to, metadata first so nothing is found whose blob is already gone.
+     */
+    public int purgeUnreferenced(String contentType, Instant cutoff) {
+        int purged = 0;
+        for (String sha256 : repository.findUnreferenced(contentType, cutoff)) {
+            repository.deleteById(sha256);
+            try {
+                Files.deleteIfExists(path(sha256));
+            } catch (IOException e) {
+                log.warn("Cannot delete artifact {}: {}", sha256, e.getMessage());
+            }
+            purged++;
+        }
+        return purged;
+    }
+
+    /** File holding the blob; callers read it directly, e.g. with {@code FileChannel.transferTo}. */
+    public Path path(String sha256) {
+        if (!SHA256_HEX.matcher(sha256).matches()) {
+            throw new IllegalArgumentException("Not a SHA-256 hex digest: " + sha256);
+        }
+        return root.resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256);
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import lombok.RequiredArgsConstructor;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Renders many contract models in parallel on the engine routed for the contract template,
+ * {@link ContractPdfRenderer} unless configured otherwise.
+ * ZIP output is written in completion order, so each document is emitted as soon as it is done.
+ */
+@Service
+@RequiredArgsConstructor
+public class PdfBatchRenderer {
+
+    private final RenderEngineRegistry renderEngines;
+    private final ExecutorService renderExecutor;
+    private final RenderMetrics renderMetrics;
+    private final RenderProperties renderProperties;
+
+    public record Item(String fileName, Map<String, Object> model) {
+    }
+
+    private record Rendered(int index, byte[] pdf) {
+    }
+
+    public void renderZip(List<Item> items, Duration timeout, OutputStream out) throws IOException {
+        Batch batch = submit(items, timeout);
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (int i = 0; i < items.size(); i++) {
+                Rendered r = batch.next();
+                // PDFs are already deflated; STORED skips a second compression pass
+                CRC32 crc = new CRC32();
+                crc.update(r.pdf());
+                ZipEntry entry = new ZipEntry(items.get(r.index()).fileName());
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(r.pdf().length);
+                entry.setCompressedSize(r.pdf().length);
+                entry.setCrc(crc.getValue());
+                zip.putNextEntry(entry);
+                zip.write(r.pdf());
+                zip.closeEntry();
+                zip.flush();
+            }
+        } finally {
+            batch.cancel();
+        }
+    }
+
+    // Each document is spilled to a temporary file as it completes and the merge reads them
+    // back through PDFBox's scratch files, so a large batch does not sit outside the admission
+    // budget as byte arrays
+    public void renderMerged(List<Item> items, Duration timeout, OutputStream out) throws IOException {
+        Batch batch = submit(items, timeout);
+        Path[] pdfs = new Path[items.size()];
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                Rendered r = batch.next();
+                Path pdf = Files.createTempFile("fileservice-batch-", ".pdf");
+                pdfs[r.index()] = pdf;
+                Files.write(pdf, r.pdf());
+            }
+            batch.cancel();
+
+            PDFMergerUtility merger = new PDFMergerUtility();
+            for (Path pdf : pdfs) {
+                merger.addSource(pdf.toFile());
+            }
+            merger.setDestinationStream(out);
+            merger.mergeDocuments(MemoryUsageSetting.setupTempFileOnly());
+        } finally {
+            batch.cancel();
+            for (Path pdf : pdfs) {
+                if (pdf != null) {
+                    Files.deleteIfExists(pdf);
+                }
+            }
+        }
+    }
+
+    private Batch submit(List<Item> items, Duration timeout) {
+        RenderEngineRegistry.Route route = renderEngines.route(TemplateCatalog.DEFAULT_TEMPLATE, ContractPdfRenderer.NAME);
+        RenderObserver observer = renderMetrics.observer("batch", TemplateCatalog.DEFAULT_TEMPLATE, route.engine().name());
+        Batch batch = new Batch(new ExecutorCompletionService<>(renderExecutor),
+                Math.max(1, renderProperties.getBatch().getParallelism()));
+        RenderCancellation.onCancel(batch::cancel);
+        for (int i = 0; i < items.size(); i++) {
+            int index = i;
+            batch.add(() -> {
+                // the deadline starts when the document is picked up, not while it waits in the queue
+                RenderContext ctx = RenderContext.withTimeout(timeout).observe(observer)
+                        .label("batch", TemplateCatalog.DEFAULT_TEMPLATE, route.engine().name());
+                batch.started(ctx);
+                try {
+                    ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+                    RenderContext.Stage total = ctx.stage("total");
+                    route.render(items.get(index).model(), ctx, pdf);
+                    total.close();
+                    return new Rendered(index, pdf.toByteArray());
+                } finally {
+                    batch.finished(ctx);
+                }
+            });
+        }
+        batch.start();
+        return batch;
+    }
+
+    // A sliding window over the documents: at most `window` of them are queued, rendering or
+    // done but not yet taken by the consumer, so a slow client or a large batch holds a bounded
+    // number of PDFs on the heap
+    private static final class Batch {
+        private final CompletionService<Rendered> completion;
+        private final int window;
+        private final List<Callable<Rendered>> renders = new ArrayList<>();
+        private final Queue<Future<Rendered>> futures = new ConcurrentLinkedQueue<>();
+        private final Set<RenderContext> running = ConcurrentHashMap.newKeySet();
+        private int submitted;
+        private volatile boolean cancelled;
+
+        Batch(CompletionService<Rendered> completion, int window) {
+            this.completion = completion;
+            this.window = window;
+        }
+
+        void add(Callable<Rendered> render) {
+            renders.add(render);
+        }
+
+        void start() {
+            while (submitted < Math.min(window, renders.size())) {
+                submitNext();
+            }
+        }
+
+        private void submitNext() {
+            if (!cancelled) {
+                futures.add(completion.submit(renders.get(submitted)));
+            }
+            renders.set(submitted++, null);
+        }
+
+        void started(RenderContext ctx) {
+            running.add(ctx);
+            // cancel() may have run between the task starting and the context being registered
+            if (cancelled) {
+                ctx.cancel();
+            }
+        }
+
+        void finished(RenderContext ctx) {
+            running.remove(ctx);
+        }
+
+        // the slot of the taken document goes to the next one
+        Rendered next() throws IOException {
+            // documents not yet submitted never arrive once the batch is cancelled
+            if (cancelled) {
+                throw new RenderCancelledException("Batch cancelled");
+            }
+            try {
+                Rendered rendered = completion.take().get();
+                if (submitted < renders.size()) {
+                    submitNext();
+                }
+                return rendered;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RenderCancelledException("Batch interrupted");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException io) throw io;
+                if (cause instanceof RuntimeException re) throw re;
+                throw new IllegalStateException("Batch render failed: " + cause.getMessage(), cause);
+            }
+        }
+
+        // stops documents that are still queued or rendering once the batch fails, is done or its
+        // request is abandoned
+        void cancel() {
+            cancelled = true;
+            running.forEach(RenderContext::cancel);
+            futures.forEach(f -> f.cancel(false));
+        }
+    }
+}
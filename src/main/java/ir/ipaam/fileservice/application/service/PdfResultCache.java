@@ -0,0 +1,214 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of rendered PDFs, keyed by {@link ir.ipaam.fileservice.application.util.ContentHash}.
+ * A byte-bounded LRU on the heap sits in front of a byte-bounded LRU of files on disk;
+ * disk entries outlive restarts and are promoted to the heap when they are hit.
+ */
+@Slf4j
+@Component
+public class PdfResultCache {
+
+    private static final long MB = 1024L * 1024L;
+    private static final String SUFFIX = ".pdf";
+
+    private final boolean enabled;
+    private final long memoryMaxBytes;
+    private final long diskMaxBytes;
+    private final Path dir;
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public PdfResultCache(RenderProperties properties) {
+        RenderProperties.Cache cache = properties.getCache();
+        this.enabled = cache.isEnabled();
+        this.memoryMaxBytes = cache.getMemoryMaxMb() * MB;
+        this.diskMaxBytes = cache.getDiskMaxMb() * MB;
+        this.dir = Paths.get(cache.getDir());
+        if (enabled) {
+            loadDiskIndex();
+        }
+    }
+
+    public Optional<byte[]> get(String key) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        synchronized (this) {
+            byte[] hot = memory.get(key);
+            if (hot != null) {
+                memoryHits.incrementAndGet();
+                return Optional.of(hot);
+            }
+            if (disk.get(key) == null) {   // get(), not containsKey(), so the LRU order is refreshed
+                misses.incrementAndGet();
+                return Optional.empty();
+            }
+        }
+        try {
+            // read straight into the array the heap tier keeps; a mapping would only add a copy
+            Path file = file(key);
+            byte[] pdf = Files.readAllBytes(file);
+            touch(file);
+            diskHits.incrementAndGet();
+            synchronized (this) {
+                putInMemory(key, pdf);
+            }
+            return Optional.of(pdf);
+        } catch (IOException e) {
+            log.warn("Dropping unreadable cache entry {}: {}", key, e.getMessage());
+            synchronized (this) {
+                removeFromDisk(key);
+            }
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+    }
+
+    public void put(String key, byte[] pdf) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            putInMemory(key, pdf);
+            if (disk.containsKey(key) || pdf.length > diskMaxBytes) {
+                return;
+            }
+        }
+        try {
+            Path tmp = Files.createTempFile(dir, key, ".tmp");
+            Files.write(tmp, pdf);
+            Files.move(tmp, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to persist cache entry {}: {}", key, e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            if (disk.put(key, (long) pdf.length) == null) {
+                diskBytes += pdf.length;
+            }
+            evictDisk();
+        }
+    }
+
+    public long memoryHits() {
+        return memoryHits.get();
+    }
+
+    public long diskHits() {
+        return diskHits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    private void putInMemory(String key, byte[] pdf) {
+        if (pdf.length > memoryMaxBytes) {
+            return;
+        }
+        byte[] previous = memory.put(key, pdf);
+        memoryBytes += pdf.length - (previous != null ? previous.length : 0);
+        Iterator<Map.Entry<String, byte[]>> it = memory.entrySet().iterator();
+        while (memoryBytes > memoryMaxBytes && it.hasNext()) {
+            memoryBytes -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    private void evictDisk() {
+        Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+        while (diskBytes > diskMaxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            diskBytes -= eldest.getValue();
+            it.remove();
+            deleteQuietly(file(eldest.getKey()));
+        }
+    }
+
+    private void removeFromDisk(String key) {
+        Long size = disk.remove(key);
+        if (size != null) {
+            diskBytes -= size;
+        }
+        deleteQuietly(file(key));
+    }
+
+    // Rebuilds the LRU order from modification times so the disk tier survives restarts
+    private void loadDiskIndex() {
+        try {
+            Files.createDirectories(dir);
+            List<Path> files;
+            try (Stream<Path> stream = Files.list(dir)) {
+                files = stream.filter(p -> p.getFileName().toString().endsWith(SUFFIX))
+                        .sorted(Comparator.comparingLong(PdfResultCache::lastModified))
+                        .toList();
+            }
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                long size = Files.size(p);
+                disk.put(name.substring(0, name.length() - SUFFIX.length()), size);
+                diskBytes += size;
+            }
+            evictDisk();
+            log.info("PDF result cache: {} entries ({} MB) on disk at {}", disk.size(), diskBytes / MB, dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot initialise PDF cache directory " + dir, e);
+        }
+    }
+
+    // The LRU order is rebuilt from modification times at startup, so a hit has to move the file too
+    private static void touch(Path p) {
+        try {
+            Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.debug("Cannot touch cache entry {}: {}", p, e.getMessage());
+        }
+    }
+
+    private Path file(String key) {
+        return dir.resolve(key + SUFFIX);
+    }
+
+    private static long lastModified(Path p) {
+        try {
+            return Files.getLastModifiedTime(p).toMillis();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    private static void deleteQuietly(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (IOException ignore) {
+        }
+    }
+}
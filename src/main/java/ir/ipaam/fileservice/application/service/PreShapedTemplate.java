@@ -0,0 +1,97 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.util.ArabicTextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A template split at its tags, with every text run that holds no placeholder already
+ * shaped. Rendering substitutes the model and shapes only the runs that had placeholders;
+ * the result equals {@code shapeArabicText(renderTemplate(template, model))}, because escaped
+ * values cannot open or close a tag. Templates using {@code |raw} take that slow path.
+ */
+final class PreShapedTemplate {
+
+    private static final Pattern RAW_PLACEHOLDER = Pattern.compile("\\{\\{[^}]*\\|\\s*raw\\s*\\}\\}");
+
+    // text is final output unless substitute is set; shape applies to substituted text runs
+    private record Part(String text, boolean substitute, boolean shape) {
+    }
+
+    private final String template;
+    private final List<Part> parts;
+
+    private PreShapedTemplate(String template, List<Part> parts) {
+        this.template = template;
+        this.parts = parts;
+    }
+
+    static PreShapedTemplate of(String template) {
+        if (RAW_PLACEHOLDER.matcher(template).find()) {
+            return new PreShapedTemplate(template, null);
+        }
+        List<Part> parts = new ArrayList<>();
+        StringBuilder literal = new StringBuilder(template.length());
+        int i = 0;
+        int n = template.length();
+        while (i < n) {
+            boolean tag = template.charAt(i) == '<';
+            int end = tag ? template.indexOf('>', i) + 1 : template.indexOf('<', i);
+            if (end <= 0) {
+                end = n;
+            }
+            String run = template.substring(i, end);
+            if (run.contains("{{")) {
+                flush(literal, parts);
+                parts.add(new Part(run, true, !tag));
+            } else if (tag) {
+                literal.append(run);
+            } else {
+                ArabicTextUtils.shapeArabicText(run, literal);
+            }
+            i = end;
+        }
+        flush(literal, parts);
+        return new PreShapedTemplate(template, List.copyOf(parts));
+    }
+
+    String render(Map<String, Object> model) {
+        if (parts == null) {
+            return ArabicTextUtils.shapeArabicText(HtmlToPdfService.renderTemplate(template, model));
+        }
+        StringBuilder out = new StringBuilder(template.length() + 2048);
+        for (Part part : parts) {
+            if (!part.substitute()) {
+                out.append(part.text());
+            } else if (part.shape()) {
+                ArabicTextUtils.shapeArabicText(HtmlToPdfService.renderTemplate(part.text(), model), out);
+            } else {
+                out.append(HtmlToPdfService.renderTemplate(part.text(), model));
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * The template with its static text shaped and every run holding a placeholder left as
+     * written; null when it uses {@code |raw}, whose values are markup.
+     */
+    String skeleton() {
+        if (parts == null) {
+            return null;
+        }
+        StringBuilder out = new StringBuilder(template.length());
+        parts.forEach(part -> out.append(part.text()));
+        return out.toString();
+    }
+
+    private static void flush(StringBuilder literal, List<Part> parts) {
+        if (!literal.isEmpty()) {
+            parts.add(new Part(literal.toString(), false, false));
+            literal.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ir.ipaam.fileservice.application.service;
+
+import com.openhtmltopdf.pdfboxout.PdfBoxRenderer;
+import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
+import ir.ipaam.fileservice.application.util.ArabicTextUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A template parsed once into the W3C document openhtmltopdf would build from it. Each render
+ * clones the document and rewrites only the text nodes and attributes that hold placeholders,
+ * so the markup is never parsed again. Static text arrives pre-shaped from
+ * {@link PreShapedTemplate#skeleton()}; placeholder text is substituted and then shaped.
+ */
+final class PreparsedDocument {
+
+    // a node holding placeholders, as the child indexes leading to it from the document
+    private record Target(int[] path, String attribute, String text) {
+    }
+
+    private final Document master;
+    private final List<Target> targets;
+
+    private PreparsedDocument(Document master, List<Target> targets) {
+        this.master = master;
+        this.targets = List.copyOf(targets);
+    }
+
+    /** Parses {@code xhtml} the way {@code withHtmlContent} does. */
+    static PreparsedDocument parse(String xhtml, String baseUri) {
+        Document doc;
+        // openhtmltopdf only parses inside a renderer; build one and keep its document
+        PdfRendererBuilder builder = new PdfRendererBuilder();
+        builder.withHtmlContent(xhtml, baseUri);
+        try (PdfBoxRenderer renderer = builder.buildPdfRenderer();
+             PDDocument unused = renderer.getPdfDocument()) {
+            doc = renderer.getDocument();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to parse template", e);
+        }
+        // one text node per run between tags, as the runs were shaped
+        doc.getDocumentElement().normalize();
+        List<Target> targets = new ArrayList<>();
+        collect(doc, new ArrayList<>(), targets);
+        return new PreparsedDocument(doc, targets);
+    }
+
+    /** A private copy of the document with {@code model} filled in. */
+    Document render(Map<String, Object> model) {
+        Document doc;
+        // the DOM is not safe for concurrent reads, and cloning is cheap next to layout
+        synchronized (master) {
+            doc = (Document) master.cloneNode(true);
+        }
+        for (Target target : targets) {
+            Node node = locate(doc, target.path());
+            String value = HtmlToPdfService.renderText(target.text(), model);
+            if (target.attribute() == null) {
+                node.setNodeValue(ArabicTextUtils.shapeArabicText(value));
+            } else {
+                ((Element) node).getAttributeNode(target.attribute()).setValue(value);
+            }
+        }
+        return doc;
+    }
+
+    private static void collect(Node node, List<Integer> path, List<Target> targets) {
+        short type = node.getNodeType();
+        if ((type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE) && node.getNodeValue().contains("{{")) {
+            targets.add(new Target(toArray(path), null, node.getNodeValue()));
+        }
+        if (type == Node.ELEMENT_NODE) {
+            NamedNodeMap attributes = node.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Node attribute = attributes.item(i);
+                if (attribute.getNodeValue().contains("{{")) {
+                    targets.add(new Target(toArray(path), attribute.getNodeName(), attribute.getNodeValue()));
+                }
+            }
+        }
+        int index = 0;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling(), index++) {
+            path.add(index);
+            collect(child, path, targets);
+            path.remove(path.size() - 1);
+        }
+    }
+
+    private static Node locate(Document doc, int[] path) {
+        Node node = doc;
+        for (int index : path) {
+            node = node.getFirstChild();
+            for (int i = 0; i < index; i++) {
+                node = node.getNextSibling();
+            }
+        }
+        return node;
+    }
+
+    private static int[] toArray(List<Integer> path) {
+        return path.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
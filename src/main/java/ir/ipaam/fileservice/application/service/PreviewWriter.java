@@ -0,0 +1,148 @@
+package ir.ipaam.fileservice.application.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/** Writes the pages of a {@link PagePreview} as PNG thumbnails or as a partial PDF. */
+final class PreviewWriter {
+
+    private PreviewWriter() {
+    }
+
+    /**
+     * Writes the selected pages of a document drawn at {@code sourceDpi}, one image per
+     * selected page that exists, in page order.
+     */
+    static void writeImages(List<BufferedImage> pages, double sourceDpi, PagePreview preview, RenderContext ctx,
+                            OutputStream out) throws IOException {
+        requirePages(pages.size(), preview);
+        List<byte[]> pngs = new ArrayList<>(pages.size());
+        try (RenderContext.Stage ignored = ctx.stage("encode")) {
+            for (BufferedImage page : pages) {
+                ctx.checkpoint();
+                pngs.add(png(scale(page, preview.dpi() / sourceDpi)));
+            }
+        }
+        write(pngs, preview, ctx, out);
+    }
+
+    /** Writes the selected pages of a laid out PDF, rasterizing them for PNG previews. */
+    static void writeDocument(PDDocument doc, PagePreview preview, RenderContext ctx, OutputStream out)
+            throws IOException {
+        int pageCount = doc.getNumberOfPages();
+        int[] selected = preview.pages().filter(page -> page <= pageCount).toArray();
+        requirePages(selected.length, preview);
+        if (preview.format() == PagePreview.Format.PDF) {
+            for (int page = pageCount; page >= 1; page--) {
+                if (!preview.contains(page)) {
+                    doc.removePage(page - 1);
+                }
+            }
+            try (RenderContext.Stage ignored = ctx.stage("write")) {
+                doc.save(ctx.guard(out));
+            }
+            return;
+        }
+        PDFRenderer renderer = new PDFRenderer(doc);
+        List<byte[]> pngs = new ArrayList<>(selected.length);
+        for (int page : selected) {
+            ctx.checkpoint();
+            BufferedImage image;
+            try (RenderContext.Stage ignored = ctx.stage("rasterize")) {
+                image = renderer.renderImageWithDPI(page - 1, preview.dpi(), ImageType.RGB);
+            }
+            try (RenderContext.Stage ignored = ctx.stage("encode")) {
+                pngs.add(png(image));
+            }
+        }
+        write(pngs, preview, ctx, out);
+    }
+
+    static void requirePages(int found, PagePreview preview) {
+        if (found == 0) {
+            throw new InvalidPreviewException("The document has none of the requested pages ("
+                    + preview.pages().mapToObj(String::valueOf).collect(Collectors.joining(",")) + ")");
+        }
+    }
+
+    private static void write(List<byte[]> pngs, PagePreview preview, RenderContext ctx, OutputStream out)
+            throws IOException {
+        OutputStream guarded = ctx.guard(out);
+        if (!preview.zipped()) {
+            guarded.write(pngs.get(0));
+            guarded.flush();
+            return;
+        }
+        PrimitiveIterator.OfInt pages = preview.pages().iterator();
+        try (ZipOutputStream zip = new ZipOutputStream(guarded)) {
+            for (byte[] png : pngs) {
+                // PNGs are already deflated; STORED skips a second compression pass
+                CRC32 crc = new CRC32();
+                crc.update(png);
+                ZipEntry entry = new ZipEntry("page-" + pages.nextInt() + ".png");
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(png.length);
+                entry.setCompressedSize(png.length);
+                entry.setCrc(crc.getValue());
+                zip.putNextEntry(entry);
+                zip.write(png);
+                zip.closeEntry();
+            }
+        }
+    }
+
+    // halving steps of bilinear filtering keep small text legible where one big step would drop pixels
+    private static BufferedImage scale(BufferedImage image, double factor) {
+        if (factor >= 1) {
+            return image;
+        }
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, width, height, null);
+            g.dispose();
+            current = next;
+        } while (width > targetWidth || height > targetHeight);
+        return current;
+    }
+
+    // an in-memory image stream; ImageIO.write would go through a temporary file by default
+    private static byte[] png(BufferedImage image) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(bytes)) {
+            writer.setOutput(stream);
+            writer.write(image);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+}
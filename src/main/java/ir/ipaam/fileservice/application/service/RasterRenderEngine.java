@@ -0,0 +1,44 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.util.ContentHash;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/** The raster pipeline of {@link HtmlToPdfService} over the {@link TemplateCatalog}. */
+@Component
+@RequiredArgsConstructor
+public class RasterRenderEngine implements RenderEngine {
+
+    public static final String NAME = "raster";
+
+    private final HtmlToPdfService htmlToPdfService;
+    private final TemplateCatalog templateCatalog;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public String fingerprint(String template) {
+        return ContentHash.start()
+                .add(HtmlToPdfService.ENGINE_OPTIONS)
+                .add(templateCatalog.get(template).id())
+                .hex();
+    }
+
+    @Override
+    public void render(String template, Map<String, Object> model, RenderContext ctx, OutputStream out) throws IOException {
+        htmlToPdfService.render(templateCatalog.get(template), model, ctx, out);
+    }
+
+    @Override
+    public void preview(String template, Map<String, Object> model, PagePreview preview, RenderContext ctx,
+                        OutputStream out) {
+        htmlToPdfService.preview(templateCatalog.get(template), model, preview, ctx, out);
+    }
+}
@@ -0,0 +1,117 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admits renders against a shared heap budget instead of a fixed thread count.
+ * Each job reserves its estimated footprint before the memory-heavy stages and
+ * releases it when done; jobs wait for budget and are rejected after {@code maxWait}.
+ */
+@Slf4j
+@Component
+public class RenderAdmissionController {
+
+    private static final long KB = 1024L;
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final Semaphore budget;
+    private final int budgetKb;
+    private final Duration maxWait;
+
+    public RenderAdmissionController(RenderProperties properties) {
+        RenderProperties.Admission admission = properties.getAdmission();
+        long budgetBytes = admission.getMemoryBudgetMb() > 0
+                ? admission.getMemoryBudgetMb() * KB * KB
+                : Runtime.getRuntime().maxMemory() / 2;
+        this.budgetKb = (int) Math.min(Integer.MAX_VALUE, budgetBytes / KB);
+        this.budget = new Semaphore(budgetKb, true);
+        this.maxWait = admission.getMaxWait();
+        log.info("Render admission budget: {} MB", budgetKb / KB);
+    }
+
+    /**
+     * Blocks until {@code estimatedBytes} of the budget is free. A job larger than the whole
+     * budget is clamped so it can still run, just never next to anything else.
+     * The wait never outlives the request's own deadline, and ends as soon as it is cancelled.
+     */
+    public Reservation reserve(long estimatedBytes, RenderContext context) {
+        int kb = (int) Math.min(budgetKb, Math.max(1, (estimatedBytes + KB - 1) / KB));
+        Duration wait = context.remaining().compareTo(maxWait) < 0 ? context.remaining() : maxWait;
+        RenderReservationEvent event = new RenderReservationEvent();
+        event.begin();
+        boolean granted = false;
+        try {
+            granted = acquire(kb, wait, context);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                context.describe(event);
+                event.bytes = kb * KB;
+                event.granted = granted;
+                event.commit();
+            }
+        }
+        if (!granted) {
+            context.checkpoint();
+            throw new RenderRejectedException("Render rejected: no memory budget for "
+                    + (kb / KB) + " MB within " + wait.toMillis() + " ms");
+        }
+        return new Reservation(kb);
+    }
+
+    // Waits in slices so an abandoned request leaves the queue at its next checkpoint instead
+    // of holding its place, and everyone behind it, until the wait runs out
+    private boolean acquire(int kb, Duration wait, RenderContext context) {
+        long deadline = System.nanoTime() + wait.toNanos();
+        try {
+            while (true) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                if (budget.tryAcquire(kb, Math.min(left, WAIT_SLICE_NANOS), TimeUnit.NANOSECONDS)) {
+                    return true;
+                }
+                context.checkpoint();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RenderRejectedException("Interrupted while waiting for render budget");
+        }
+    }
+
+    public long availableBytes() {
+        return budget.availablePermits() * KB;
+    }
+
+    public long budgetBytes() {
+        return budgetKb * KB;
+    }
+
+    public final class Reservation implements AutoCloseable {
+        private final int kb;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Reservation(int kb) {
+            this.kb = kb;
+        }
+
+        public long bytes() {
+            return kb * KB;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                budget.release(kb);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package ir.ipaam.fileservice.application.service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Abandonment of one async response: cancelled when the request times out or fails, for
+ * instance because the client went away. It is bound to the thread writing the response body,
+ * which is the thread that renders; {@link #attach} cancels a render context created there
+ * together with the request.
+ */
+public final class RenderCancellation {
+
+    private static final ThreadLocal<RenderCancellation> CURRENT = new ThreadLocal<>();
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled;
+
+    /** Binds this cancellation to the current thread until {@link #unbind()}. */
+    public void bind() {
+        CURRENT.set(this);
+    }
+
+    public static void unbind() {
+        CURRENT.remove();
+    }
+
+    /** {@code ctx}, cancelled when the request being written on this thread is abandoned. */
+    public static RenderContext attach(RenderContext ctx) {
+        onCancel(ctx::cancel);
+        return ctx;
+    }
+
+    /** Runs {@code action} when the request being written on this thread is abandoned, if any. */
+    public static void onCancel(Runnable action) {
+        RenderCancellation cancellation = CURRENT.get();
+        if (cancellation == null) {
+            return;
+        }
+        cancellation.listeners.add(action);
+        // cancel() may have run before the action was added
+        if (cancellation.cancelled) {
+            action.run();
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+        listeners.forEach(Runnable::run);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
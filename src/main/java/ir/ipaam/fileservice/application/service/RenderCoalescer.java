@@ -0,0 +1,165 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import ir.ipaam.fileservice.domain.dto.PdfGenerationResult;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Single-flight for renders: while a render for a content hash is running, further
+ * requests for the same hash wait for it and share its bytes instead of rendering again.
+ * The first caller streams the render to its own output and keeps a copy, up to
+ * {@code fileservice.render.cache.max-entry-mb}, for the waiters; its failure is also theirs.
+ * A waiter waits no longer than its own deadline and stops when its own request is abandoned.
+ */
+@Component
+public class RenderCoalescer {
+
+    private static final long MB = 1024L * 1024L;
+    private static final Duration WAIT_SLICE = Duration.ofMillis(50);
+
+    private final ConcurrentMap<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final long maxSharedBytes;
+
+    public RenderCoalescer(RenderProperties properties) {
+        this.maxSharedBytes = properties.getCache().getMaxEntryMb() * MB;
+    }
+
+    /**
+     * Writes the render for {@code key} to {@code out}, running {@code render} only if no
+     * identical render is in flight. {@code onRendered} receives the bytes of a completed
+     * render that was small enough to keep, before any waiter is released. {@code ctx} bounds
+     * the wait for an identical render; {@code render} runs under its own context.
+     */
+    public void stream(String key, RenderContext ctx, OutputStream out, PdfGenerationResult.Body render,
+                       Consumer<byte[]> onRendered) throws IOException {
+        CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            byte[] shared = await(running, ctx);
+            if (shared != null) {
+                coalesced.incrementAndGet();
+                out.write(shared);
+                return;
+            }
+            // too large to share, or the first caller's client went away
+            render.writeTo(out);
+            return;
+        }
+        try {
+            Capture capture = new Capture(out, maxSharedBytes);
+            render.writeTo(capture);
+            capture.flush();
+            byte[] bytes = capture.bytes();
+            if (bytes != null) {
+                onRendered.accept(bytes);
+            }
+            mine.complete(bytes);
+        } catch (Throwable t) {
+            mine.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /** Requests that were served by another request's render. */
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    // Waits in slices so a waiter whose request is abandoned or out of time leaves at its next
+    // checkpoint, with its own RenderCancelledException, however long the first render takes
+    private static byte[] await(CompletableFuture<byte[]> running, RenderContext ctx) throws IOException {
+        try {
+            while (true) {
+                ctx.checkpoint();
+                Duration left = ctx.remaining();
+                Duration slice = left.compareTo(WAIT_SLICE) < 0 ? left : WAIT_SLICE;
+                try {
+                    return running.get(slice.toNanos(), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException stillRunning) {
+                    // next slice
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RenderCancelledException("Render cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            // the first caller's request was abandoned or ran out of time; a waiter renders under its own deadline
+            if (cause instanceof IOException || cause instanceof RenderCancelledException) {
+                return null;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    // Tees the stream into memory until the limit is crossed; close() leaves the target open
+    private static final class Capture extends FilterOutputStream {
+        private final long limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        Capture(OutputStream out, long limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (copy != null && keep(1)) {
+                copy.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null && keep(len)) {
+                copy.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        byte[] bytes() {
+            return copy != null ? copy.toByteArray() : null;
+        }
+
+        private boolean keep(int len) {
+            if (copy.size() + (long) len > limit) {
+                copy = null;
+                return false;
+            }
+            return true;
+        }
+    }
+}
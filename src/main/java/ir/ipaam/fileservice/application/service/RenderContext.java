@@ -0,0 +1,187 @@
+package ir.ipaam.fileservice.application.service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+
+/**
+ * Per-request deadline and cancellation token. Render loops call {@link #checkpoint()}
+ * between blocks and pages so abandoned work stops promptly and frees the executor. Stage
+ * timings and counts are reported to the {@link RenderObserver} set with {@link #observe}, and
+ * each stage is emitted as a {@link RenderStageEvent} labelled with {@link #label}.
+ */
+public final class RenderContext {
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+    private static final Duration FOREVER = Duration.ofSeconds(Long.MAX_VALUE);
+
+    private final long deadlineNanos;
+    private volatile boolean cancelled;
+    private RenderObserver observer = RenderObserver.NONE;
+    private String endpoint;
+    private String template;
+    private String templateId;
+    private String engine;
+    private long pages;
+    private long blocks;
+    private long spans;
+    private long outputBytes;
+
+    private RenderContext(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static RenderContext unbounded() {
+        return new RenderContext(NO_DEADLINE);
+    }
+
+    public static RenderContext withTimeout(Duration timeout) {
+        if (timeout == null || timeout.isZero() || timeout.isNegative()) {
+            return unbounded();
+        }
+        return new RenderContext(System.nanoTime() + timeout.toNanos());
+    }
+
+    /** Reports this render's stages and counts to {@code observer}. */
+    public RenderContext observe(RenderObserver observer) {
+        this.observer = observer;
+        return this;
+    }
+
+    /** Names the render in its JFR events. */
+    public RenderContext label(String endpoint, String template, String engine) {
+        this.endpoint = endpoint;
+        this.template = template;
+        this.engine = engine;
+        return this;
+    }
+
+    /** The id of the compiled template being rendered, for JFR events. */
+    public void templateId(String templateId) {
+        this.templateId = templateId;
+    }
+
+    /** Times {@code stage} until the returned handle is closed. */
+    public Stage stage(String stage) {
+        return new Stage(stage);
+    }
+
+    public void count(String counter, long amount) {
+        switch (counter) {
+            case "pages" -> pages += amount;
+            case "blocks" -> blocks += amount;
+            case "spans" -> spans += amount;
+            case "output.bytes" -> outputBytes += amount;
+            default -> {
+            }
+        }
+        observer.count(counter, amount);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Time left before the deadline; {@link Duration#ZERO} once it has passed.
+     */
+    public Duration remaining() {
+        if (deadlineNanos == NO_DEADLINE) {
+            return FOREVER;
+        }
+        long left = deadlineNanos - System.nanoTime();
+        return left > 0 ? Duration.ofNanos(left) : Duration.ZERO;
+    }
+
+    public void checkpoint() {
+        if (cancelled) {
+            throw new RenderCancelledException("Render cancelled");
+        }
+        if (deadlineNanos != NO_DEADLINE && System.nanoTime() - deadlineNanos > 0) {
+            throw new RenderCancelledException("Render deadline exceeded");
+        }
+    }
+
+    /**
+     * Wraps a sink so serialization stops as soon as the request is abandoned, and counts
+     * the bytes written as {@code output.bytes}. Only bulk writes are checked; single-byte
+     * writes stay on the fast path.
+     */
+    public OutputStream guard(OutputStream out) {
+        return new FilterOutputStream(out) {
+            private long unreported;
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                unreported++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                checkpoint();
+                out.write(b, off, len);
+                count("output.bytes", unreported + len);
+                unreported = 0;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                super.flush();
+                if (unreported > 0) {
+                    count("output.bytes", unreported);
+                    unreported = 0;
+                }
+            }
+
+            // the caller owns the stream; renderers that close their output must not end a response
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+
+    void describe(RenderReservationEvent event) {
+        event.endpoint = endpoint;
+        event.template = template;
+        event.templateId = templateId;
+        event.engine = engine;
+    }
+
+    /** A running stage timer; closing it reports the elapsed time. */
+    public final class Stage implements AutoCloseable {
+        private final String name;
+        private final long start = System.nanoTime();
+        private final RenderStageEvent event = new RenderStageEvent();
+
+        private Stage(String name) {
+            this.name = name;
+            event.begin();
+        }
+
+        @Override
+        public void close() {
+            observer.stage(name, System.nanoTime() - start);
+            event.end();
+            // false unless a recording has the event enabled
+            if (event.shouldCommit()) {
+                event.stage = name;
+                event.endpoint = endpoint;
+                event.template = template;
+                event.templateId = templateId;
+                event.engine = engine;
+                event.pages = pages;
+                event.blocks = blocks;
+                event.spans = spans;
+                event.outputBytes = outputBytes;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package ir.ipaam.fileservice.application.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * A PDF renderer for the templates shipped on the classpath, addressed by directory name.
+ * {@link RenderEngineRegistry} decides which engine renders which template.
+ */
+public interface RenderEngine {
+
+    /** The name used for this engine in {@code fileservice.render.engines.routes}. */
+    String name();
+
+    /** Hash of the template and engine options; part of the result cache key. */
+    String fingerprint(String template);
+
+    void render(String template, Map<String, Object> model, RenderContext ctx, OutputStream out) throws IOException;
+
+    /**
+     * Renders only the pages of {@code preview}. By default the whole PDF is rendered and the
+     * pages are taken from it; engines that can skip drawing the other pages override this.
+     */
+    default void preview(String template, Map<String, Object> model, PagePreview preview, RenderContext ctx,
+                         OutputStream out) throws IOException {
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        render(template, model, ctx, pdf);
+        try (PDDocument doc = PDDocument.load(pdf.toByteArray())) {
+            PreviewWriter.writeDocument(doc, preview, ctx, out);
+        }
+    }
+}
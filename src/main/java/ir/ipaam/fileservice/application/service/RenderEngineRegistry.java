@@ -0,0 +1,189 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks the {@link RenderEngine} for each classpath template from
+ * {@code fileservice.render.engines.routes}, falling back to the engine the calling endpoint
+ * names. With a shadow rate set, a sample of renders is repeated on every engine in the
+ * background, one sample at a time, and their latency and size are kept per template and
+ * engine in {@link #stats()}.
+ */
+@Slf4j
+@Service
+public class RenderEngineRegistry {
+
+    /** Shadow renders of one template on one engine. */
+    public static final class Stats {
+        private final AtomicLong renders = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        public long renders() {
+            return renders.get();
+        }
+
+        public long failures() {
+            return failures.get();
+        }
+
+        /** Total time of the successful renders. */
+        public long nanos() {
+            return nanos.get();
+        }
+
+        /** Total PDF bytes of the successful renders. */
+        public long bytes() {
+            return bytes.get();
+        }
+    }
+
+    /** A template bound to the engine that renders it. */
+    public final class Route {
+        private final String template;
+        private final RenderEngine engine;
+
+        private Route(String template, RenderEngine engine) {
+            this.template = template;
+            this.engine = engine;
+        }
+
+        public RenderEngine engine() {
+            return engine;
+        }
+
+        public String fingerprint() {
+            return engine.fingerprint(template);
+        }
+
+        public void render(Map<String, Object> model, RenderContext ctx, OutputStream out) throws IOException {
+            engine.render(template, model, ctx, out);
+            if (shadowRate > 0 && ThreadLocalRandom.current().nextDouble() < shadowRate) {
+                shadow(template, model);
+            }
+        }
+
+        public void preview(Map<String, Object> model, PagePreview preview, RenderContext ctx, OutputStream out)
+                throws IOException {
+            engine.preview(template, model, preview, ctx, out);
+        }
+    }
+
+    private final Map<String, RenderEngine> engines = new LinkedHashMap<>();
+    private final Map<String, String> routes;
+    private final double shadowRate;
+    private final Duration timeout;
+    private final ExecutorService renderExecutor;
+    private final AtomicBoolean shadowing = new AtomicBoolean();
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    public RenderEngineRegistry(List<RenderEngine> engines, ExecutorService renderExecutor, RenderProperties properties) {
+        engines.forEach(engine -> this.engines.put(engine.name(), engine));
+        this.routes = Map.copyOf(properties.getEngines().getRoutes());
+        routes.forEach((template, engine) -> {
+            if (!this.engines.containsKey(engine)) {
+                throw new IllegalStateException("Template " + template + " is routed to unknown render engine "
+                        + engine + "; known engines are " + this.engines.keySet());
+            }
+        });
+        this.shadowRate = properties.getEngines().getShadowRate();
+        this.timeout = properties.getTimeout();
+        this.renderExecutor = renderExecutor;
+        if (!routes.isEmpty()) {
+            log.info("Render engine routes: {}", routes);
+        }
+    }
+
+    /** The configured engine for {@code template}, else the engine named {@code fallback}. */
+    public Route route(String template, String fallback) {
+        RenderEngine engine = engines.get(routes.getOrDefault(template, fallback));
+        if (engine == null) {
+            throw new IllegalStateException("Unknown render engine " + fallback);
+        }
+        return new Route(template, engine);
+    }
+
+    public Collection<RenderEngine> engines() {
+        return Collections.unmodifiableCollection(engines.values());
+    }
+
+    /** Shadow render counters by {@code template/engine}. */
+    public Map<String, Stats> stats() {
+        return Collections.unmodifiableMap(new TreeMap<>(stats));
+    }
+
+    // one sample at a time, so shadow work never takes more than one render thread
+    private void shadow(String template, Map<String, Object> model) {
+        if (!shadowing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            renderExecutor.execute(() -> {
+                try {
+                    StringJoiner summary = new StringJoiner(", ");
+                    for (RenderEngine engine : engines.values()) {
+                        summary.add(engine.name() + " " + shadowRender(engine, template, model));
+                    }
+                    log.info("Shadow render of {}: {}", template, summary);
+                } finally {
+                    shadowing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            shadowing.set(false);
+        }
+    }
+
+    private String shadowRender(RenderEngine engine, String template, Map<String, Object> model) {
+        Stats counters = stats.computeIfAbsent(template + "/" + engine.name(), k -> new Stats());
+        counters.renders.incrementAndGet();
+        CountingOutputStream out = new CountingOutputStream();
+        long start = System.nanoTime();
+        try {
+            engine.render(template, model, RenderContext.withTimeout(timeout), out);
+        } catch (Exception e) {
+            counters.failures.incrementAndGet();
+            log.debug("Shadow render of {} on {} failed", template, engine.name(), e);
+            return "failed: " + e.getMessage();
+        }
+        long elapsed = System.nanoTime() - start;
+        counters.nanos.addAndGet(elapsed);
+        counters.bytes.addAndGet(out.count);
+        return TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms, " + out.count + " bytes";
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
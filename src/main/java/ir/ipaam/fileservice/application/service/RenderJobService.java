@@ -0,0 +1,191 @@
+package ir.ipaam.fileservice.application.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import ir.ipaam.fileservice.domain.command.GeneratePdfFromContentCommand;
+import ir.ipaam.fileservice.domain.command.GeneratePdfFromTemplateCommand;
+import ir.ipaam.fileservice.domain.command.GeneratePdfFromThirdPartyCommand;
+import ir.ipaam.fileservice.domain.dto.PdfGenerationResult;
+import ir.ipaam.fileservice.domain.event.PdfCreatedEvent;
+import ir.ipaam.fileservice.domain.model.PdfArtifact;
+import ir.ipaam.fileservice.domain.model.RenderJob;
+import ir.ipaam.fileservice.domain.model.RenderJobStatus;
+import ir.ipaam.fileservice.domain.repository.RenderJobRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.axonframework.eventhandling.gateway.EventGateway;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Durable render queue on the {@code render_job} table. Submissions store the render
+ * command as JSON; workers on any instance claim jobs with {@code FOR UPDATE SKIP LOCKED}
+ * and hold them under a lease, so a job whose worker died is picked up again. A succeeded
+ * job whose output can no longer be served is only rendered again when a client asks for it.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RenderJobService {
+
+    private static final List<Class<?>> COMMAND_TYPES = List.of(
+            GeneratePdfFromTemplateCommand.class,
+            GeneratePdfFromThirdPartyCommand.class,
+            GeneratePdfFromContentCommand.class
+    );
+
+    private static final Duration LEASE_MARGIN = Duration.ofSeconds(30);
+    private static final int MAX_ERROR_LENGTH = 2000;
+
+    private final RenderJobRepository repository;
+    private final PdfArtifactStore artifactStore;
+    private final ObjectMapper objectMapper;
+    private final EventGateway eventGateway;
+    private final RenderProperties renderProperties;
+
+    @Transactional
+    public RenderJob submit(Object command) {
+        if (!COMMAND_TYPES.contains(command.getClass())) {
+            throw new IllegalArgumentException("Not a job command: " + command.getClass().getName());
+        }
+        RenderJob job = new RenderJob();
+        job.setId(UUID.randomUUID().toString());
+        job.setStatus(RenderJobStatus.QUEUED);
+        job.setCommandType(command.getClass().getSimpleName());
+        try {
+            job.setPayload(objectMapper.writeValueAsString(command));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Command is not serializable: " + e.getMessage(), e);
+        }
+        job.setCreatedAt(Instant.now());
+        return repository.save(job);
+    }
+
+    /** The job as stored; looking a job up never changes it. */
+    @Transactional(readOnly = true)
+    public Optional<RenderJob> find(String id) {
+        return repository.findById(id);
+    }
+
+    /**
+     * Whether this instance can serve the output of a succeeded job: the artifact was not
+     * removed, and was written to a store this instance shares.
+     */
+    public boolean isServable(RenderJob job) {
+        return job.getStatus() == RenderJobStatus.SUCCEEDED && artifactStore.find(job.getArtifactSha256())
+                .filter(artifactStore::isAvailable).isPresent();
+    }
+
+    /**
+     * Queues a succeeded job whose output is gone for another render. Its attempts are kept,
+     * so a job whose output keeps going missing stops at max-attempts like any other; the job
+     * is returned unchanged if it has moved on meanwhile.
+     */
+    @Transactional
+    public RenderJob rerender(RenderJob job) {
+        if (repository.requeueSucceeded(job.getId(), job.getArtifactSha256()) > 0) {
+            log.warn("Output {} of render job {} is not in the artifact store; queued it again",
+                    job.getArtifactSha256(), job.getId());
+        }
+        return repository.findById(job.getId()).orElse(job);
+    }
+
+    /**
+     * Claims the oldest queued (or abandoned) job for {@code workerId}, if any.
+     */
+    @Transactional
+    public Optional<RenderJob> claim(String workerId) {
+        Instant now = Instant.now();
+        Optional<RenderJob> next;
+        while ((next = repository.lockNextClaimable(now)).isPresent()) {
+            RenderJob job = next.get();
+            if (job.getAttempts() >= renderProperties.getJobs().getMaxAttempts()) {
+                log.warn("Render job {} abandoned after {} attempts", job.getId(), job.getAttempts());
+                job.setStatus(RenderJobStatus.FAILED);
+                job.setFinishedAt(now);
+                job.setError("Abandoned after " + job.getAttempts() + " attempts");
+                repository.saveAndFlush(job);
+                continue;
+            }
+            job.setStatus(RenderJobStatus.RUNNING);
+            job.setAttempts(job.getAttempts() + 1);
+            job.setWorkerId(workerId);
+            job.setStartedAt(now);
+            job.setLeaseExpiresAt(now.plus(renderProperties.getTimeout()).plus(LEASE_MARGIN));
+            return Optional.of(repository.save(job));
+        }
+        return Optional.empty();
+    }
+
+    public Object command(RenderJob job) throws JsonProcessingException {
+        for (Class<?> type : COMMAND_TYPES) {
+            if (type.getSimpleName().equals(job.getCommandType())) {
+                return objectMapper.readValue(job.getPayload(), type);
+            }
+        }
+        throw new IllegalStateException("Unknown job command type: " + job.getCommandType());
+    }
+
+    /**
+     * Stores the outcome and publishes {@link PdfCreatedEvent} in the same transaction.
+     */
+    @Transactional
+    public void complete(RenderJob claimed, PdfGenerationResult result, PdfArtifact artifact) {
+        Optional<RenderJob> owned = reloadIfStillOwned(claimed);
+        if (owned.isEmpty()) {
+            return;
+        }
+        RenderJob job = owned.get();
+        job.setStatus(RenderJobStatus.SUCCEEDED);
+        job.setFinishedAt(Instant.now());
+        job.setLeaseExpiresAt(null);
+        job.setFileName(result.fileName());
+        job.setContentHash(result.etag());
+        job.setSizeBytes(artifact.getSizeBytes());
+        job.setArtifactSha256(artifact.getSha256());
+        repository.save(job);
+        eventGateway.publish(new PdfCreatedEvent(
+                job.getId(), result.fileName(), artifact.getSha256(), artifact.getSizeBytes()
+        ));
+    }
+
+    @Transactional
+    public void fail(RenderJob claimed, Throwable error) {
+        Optional<RenderJob> owned = reloadIfStillOwned(claimed);
+        if (owned.isEmpty()) {
+            return;
+        }
+        RenderJob job = owned.get();
+        String message = error.getClass().getSimpleName() + ": " + error.getMessage();
+        job.setStatus(RenderJobStatus.FAILED);
+        job.setFinishedAt(Instant.now());
+        job.setLeaseExpiresAt(null);
+        job.setError(message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message);
+        repository.save(job);
+    }
+
+    /** Deletes jobs that finished before {@code cutoff}; their outputs become unreferenced. */
+    @Transactional
+    public int purgeFinished(Instant cutoff) {
+        return repository.deleteFinishedBefore(cutoff);
+    }
+
+    // a worker that outlived its lease must not overwrite the attempt that replaced it
+    private Optional<RenderJob> reloadIfStillOwned(RenderJob claimed) {
+        Optional<RenderJob> current = repository.findById(claimed.getId())
+                .filter(job -> job.getStatus() == RenderJobStatus.RUNNING)
+                .filter(job -> job.getAttempts() == claimed.getAttempts());
+        if (current.isEmpty()) {
+            log.warn("Render job {} attempt {} lost its lease; discarding its outcome",
+                    claimed.getId(), claimed.getAttempts());
+        }
+        return current;
+    }
+}
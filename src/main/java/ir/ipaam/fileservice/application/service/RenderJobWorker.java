@@ -0,0 +1,109 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import ir.ipaam.fileservice.domain.dto.PdfGenerationResult;
+import ir.ipaam.fileservice.domain.model.PdfArtifact;
+import ir.ipaam.fileservice.domain.model.RenderJob;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.axonframework.commandhandling.gateway.CommandGateway;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Polls the render job queue and runs claimed jobs through the same command handlers
+ * as the synchronous endpoints.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RenderJobWorker {
+
+    private final RenderJobService jobService;
+    private final PdfArtifactStore artifactStore;
+    private final CommandGateway commandGateway;
+    private final RenderProperties renderProperties;
+
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        int workers = renderProperties.getJobs().getWorkers();
+        running = true;
+        String instance = instanceId();
+        for (int i = 0; i < workers; i++) {
+            String workerId = instance + "/" + i;
+            threads.add(Thread.ofPlatform().name("render-job-" + i).daemon().start(() -> poll(workerId)));
+        }
+        if (workers > 0) {
+            log.info("Started {} render job workers as {}", workers, instance);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        threads.forEach(Thread::interrupt);
+    }
+
+    private void poll(String workerId) {
+        long idleMillis = renderProperties.getJobs().getPollInterval().toMillis();
+        while (running) {
+            try {
+                Optional<RenderJob> job = jobService.claim(workerId);
+                if (job.isPresent()) {
+                    run(job.get());
+                } else {
+                    Thread.sleep(idleMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // database unavailable and the like; back off and keep polling
+                log.warn("Render job poll failed: {}", e.getMessage());
+                try {
+                    Thread.sleep(idleMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void run(RenderJob job) {
+        log.debug("Running render job {} (attempt {})", job.getId(), job.getAttempts());
+        PdfGenerationResult result;
+        PdfArtifact artifact;
+        try {
+            result = commandGateway.sendAndWait(jobService.command(job));
+            // the render runs here, straight into the artifact store
+            artifact = artifactStore.store(result.body(), MediaType.APPLICATION_PDF_VALUE);
+        } catch (Exception e) {
+            log.warn("Render job {} failed: {}", job.getId(), e.getMessage());
+            jobService.fail(job, e);
+            return;
+        }
+        jobService.complete(job, result, artifact);
+    }
+
+    private static String instanceId() {
+        long pid = ProcessHandle.current().pid();
+        try {
+            return InetAddress.getLocalHost().getHostName() + ":" + pid;
+        } catch (UnknownHostException e) {
+            return "unknown:" + pid;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package ir.ipaam.fileservice.application.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Micrometer meters of the render pipeline, exposed on {@code /actuator/prometheus}:
+ * <ul>
+ *   <li>{@code fileservice.render.stage}: a histogram timer per pipeline stage, with stage
+ *   {@code total} for the whole render, tagged by endpoint, template and engine;</li>
+ *   <li>{@code fileservice.render.pages|blocks|spans|lines|output.bytes|failures}: counters with
+ *   the same tags;</li>
+ *   <li>the render executor's pool and queue, admission budget, result and resource cache
+ *   hits, coalesced renders and shadow renders of {@link RenderEngineRegistry}.</li>
+ * </ul>
+ * Resource cache sources and shadow-rendered templates appear lazily; their meters are
+ * registered by the first render after they do.
+ */
+@Component
+public class RenderMetrics {
+
+    private final MeterRegistry registry;
+    private final ResourceCache resourceCache;
+    private final RenderEngineRegistry renderEngines;
+    private final Map<List<String>, RenderObserver> observers = new ConcurrentHashMap<>();
+    private final Set<String> boundSources = ConcurrentHashMap.newKeySet();
+    private final Set<String> boundShadows = ConcurrentHashMap.newKeySet();
+
+    public RenderMetrics(MeterRegistry registry, ExecutorService renderExecutor, RenderAdmissionController admission,
+                         PdfResultCache resultCache, RenderCoalescer renderCoalescer, ResourceCache resourceCache,
+                         RenderEngineRegistry renderEngines) {
+        this.registry = registry;
+        this.resourceCache = resourceCache;
+        this.renderEngines = renderEngines;
+
+        new ExecutorServiceMetrics(renderExecutor, "render", Tags.empty()).bindTo(registry);
+
+        Gauge.builder("fileservice.render.admission.available", admission, RenderAdmissionController::availableBytes)
+                .baseUnit("bytes")
+                .description("Render memory budget not reserved by in-flight renders")
+                .register(registry);
+        Gauge.builder("fileservice.render.admission.budget", admission, RenderAdmissionController::budgetBytes)
+                .baseUnit("bytes")
+                .register(registry);
+
+        resultCacheCounter(resultCache, "memory-hit", PdfResultCache::memoryHits);
+        resultCacheCounter(resultCache, "disk-hit", PdfResultCache::diskHits);
+        resultCacheCounter(resultCache, "miss", PdfResultCache::misses);
+        FunctionCounter.builder("fileservice.render.coalesced", renderCoalescer, RenderCoalescer::coalesced)
+                .description("Requests answered by another request's render of the same key")
+                .register(registry);
+        Gauge.builder("fileservice.render.in-flight", renderCoalescer, RenderCoalescer::inFlight)
+                .description("Distinct renders currently streaming")
+                .register(registry);
+        Gauge.builder("fileservice.resource.cache.size", resourceCache, ResourceCache::bytes)
+                .baseUnit("bytes")
+                .register(registry);
+
+    }
+
+    /** Meters a render's stages and counts under the given tags. */
+    public RenderObserver observer(String endpoint, String template, String engine) {
+        if (resourceCache.stats().size() != boundSources.size()
+                || renderEngines.stats().size() != boundShadows.size()) {
+            bindDynamicMeters();
+        }
+        return observers.computeIfAbsent(List.of(endpoint, template, engine),
+                key -> new Observer(Tags.of("endpoint", endpoint, "template", template, "engine", engine)));
+    }
+
+    private void resultCacheCounter(PdfResultCache cache, String result,
+                                    ToDoubleFunction<PdfResultCache> count) {
+        FunctionCounter.builder("fileservice.result.cache.requests", cache, count)
+                .tag("result", result)
+                .register(registry);
+    }
+
+    // function meters warn when registered twice, so each source is bound once
+    private void bindDynamicMeters() {
+        resourceCache.stats().forEach((source, stats) -> {
+            if (!boundSources.add(source)) {
+                return;
+            }
+            FunctionCounter.builder("fileservice.resource.cache.requests", stats, ResourceCache.Stats::hits)
+                    .tags("source", source, "result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("fileservice.resource.cache.requests", stats, ResourceCache.Stats::misses)
+                    .tags("source", source, "result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("fileservice.resource.cache.loaded", stats, ResourceCache.Stats::bytesLoaded)
+                    .baseUnit("bytes")
+                    .tag("source", source)
+                    .register(registry);
+        });
+        renderEngines.stats().forEach((key, stats) -> {
+            if (!boundShadows.add(key)) {
+                return;
+            }
+            String[] templateAndEngine = key.split("/", 2);
+            Tags tags = Tags.of("template", templateAndEngine[0], "engine", templateAndEngine[1]);
+            FunctionTimer.builder("fileservice.render.shadow", stats,
+                            s -> s.renders() - s.failures(), RenderEngineRegistry.Stats::nanos, TimeUnit.NANOSECONDS)
+                    .tags(tags)
+                    .register(registry);
+            FunctionCounter.builder("fileservice.render.shadow.failures", stats, RenderEngineRegistry.Stats::failures)
+                    .tags(tags)
+                    .register(registry);
+            FunctionCounter.builder("fileservice.render.shadow.output", stats, RenderEngineRegistry.Stats::bytes)
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(registry);
+        });
+    }
+
+    private final class Observer implements RenderObserver {
+        private final Tags tags;
+        private final Map<String, Timer> stages = new ConcurrentHashMap<>();
+        private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+        Observer(Tags tags) {
+            this.tags = tags;
+        }
+
+        @Override
+        public void stage(String stage, long nanos) {
+            stages.computeIfAbsent(stage, s -> Timer.builder("fileservice.render.stage")
+                    .tags(tags)
+                    .tag("stage", s)
+                    .publishPercentileHistogram()
+                    .register(registry)
+            ).record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void count(String counter, long amount) {
+            counters.computeIfAbsent(counter, c -> Counter.builder("fileservice.render." + c)
+                    .tags(tags)
+                    .register(registry)
+            ).increment(amount);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package ir.ipaam.fileservice.application.service;
+
+/**
+ * Receives the stage timings and counts of one render, through its {@link RenderContext}.
+ */
+public interface RenderObserver {
+
+    RenderObserver NONE = new RenderObserver() {
+        @Override
+        public void stage(String stage, long nanos) {
+        }
+
+        @Override
+        public void count(String counter, long amount) {
+        }
+    };
+
+    void stage(String stage, long nanos);
+
+    void count(String counter, long amount);
+}
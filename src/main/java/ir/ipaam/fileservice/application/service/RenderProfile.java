@@ -0,0 +1,110 @@
+package ir.ipaam.fileservice.application.service;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Stage times and counts of one request's render, collected by {@link RenderProfiler} when
+ * the client asks for them. The profile is bound to the thread writing the response, which is
+ * the thread that renders; {@link #attach} adds it to the observer of a render context created
+ * there.
+ */
+public final class RenderProfile implements RenderObserver {
+
+    private static final ThreadLocal<RenderProfile> CURRENT = new ThreadLocal<>();
+
+    private final Map<String, Long> stageNanos = new LinkedHashMap<>();
+    private final Map<String, Long> counts = new LinkedHashMap<>();
+    private final boolean cached;
+    private long nanos;
+    private long allocatedBytes = -1;
+
+    RenderProfile(boolean cached) {
+        this.cached = cached;
+    }
+
+    /** {@code observer}, also reporting to the profile being recorded on this thread, if any. */
+    public static RenderObserver attach(RenderObserver observer) {
+        RenderProfile profile = CURRENT.get();
+        if (profile == null) {
+            return observer;
+        }
+        return new RenderObserver() {
+            @Override
+            public void stage(String stage, long nanos) {
+                observer.stage(stage, nanos);
+                profile.stage(stage, nanos);
+            }
+
+            @Override
+            public void count(String counter, long amount) {
+                observer.count(counter, amount);
+                profile.count(counter, amount);
+            }
+        };
+    }
+
+    @Override
+    public void stage(String stage, long nanos) {
+        stageNanos.merge(stage, nanos, Long::sum);
+    }
+
+    @Override
+    public void count(String counter, long amount) {
+        counts.merge(counter, amount, Long::sum);
+    }
+
+    /** {@code rendered}, {@code cache-hit}, or {@code coalesced} when another request rendered it. */
+    public String outcome() {
+        if (cached) {
+            return "cache-hit";
+        }
+        return stageNanos.isEmpty() ? "coalesced" : "rendered";
+    }
+
+    /** Time from the first to the last byte written, in nanoseconds. */
+    public long nanos() {
+        return nanos;
+    }
+
+    /** Bytes allocated by the rendering thread; -1 when the JVM does not measure it. */
+    public long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /** Summed time per stage, in the order the stages first ended. */
+    public Map<String, Long> stageNanos() {
+        return stageNanos;
+    }
+
+    public Map<String, Long> counts() {
+        return counts;
+    }
+
+    /** The profile as a {@code Server-Timing} header value, durations in milliseconds. */
+    public String serverTiming() {
+        StringJoiner header = new StringJoiner(", ");
+        stageNanos.forEach((stage, stageNanos) -> header.add(timing(stage, stageNanos)));
+        if (!stageNanos.containsKey("total")) {
+            header.add(timing("total", nanos));
+        }
+        header.add("cache;desc=\"" + outcome() + "\"");
+        return header.toString();
+    }
+
+    void start() {
+        CURRENT.set(this);
+    }
+
+    void stop(long nanos, long allocatedBytes) {
+        CURRENT.remove();
+        this.nanos = nanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    private static String timing(String stage, long nanos) {
+        return String.format(Locale.ROOT, "%s;dur=%.1f", stage, nanos / 1e6);
+    }
+}
@@ -0,0 +1,84 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import ir.ipaam.fileservice.domain.dto.PdfGenerationResult;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Renders a result on the calling thread with a {@link RenderProfile} bound to it, for
+ * clients that send {@value #HEADER}: {@code timing} answers with the PDF and a
+ * {@code Server-Timing} header, {@code json} with the profile instead of the PDF.
+ */
+@Service
+public class RenderProfiler {
+
+    public static final String HEADER = "X-Render-Profile";
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final boolean enabled;
+    private final PdfResultCache resultCache;
+    private final ResourceCache resourceCache;
+
+    public RenderProfiler(RenderProperties properties, PdfResultCache resultCache, ResourceCache resourceCache) {
+        this.enabled = properties.getProfiling().isEnabled();
+        this.resultCache = resultCache;
+        this.resourceCache = resourceCache;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Writes {@code result} to {@code out} and returns how it went. */
+    public RenderProfile profile(PdfGenerationResult result, OutputStream out) throws IOException {
+        RenderProfile profile = new RenderProfile(result.contentLength() != null);
+        boolean measured = THREADS.isThreadAllocatedMemorySupported() && THREADS.isThreadAllocatedMemoryEnabled();
+        long allocatedBefore = measured ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+        long start = System.nanoTime();
+        profile.start();
+        try {
+            result.writeTo(out);
+        } finally {
+            profile.stop(System.nanoTime() - start,
+                    measured ? THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore : -1);
+        }
+        return profile;
+    }
+
+    /** The profile with the service's cache hit ratios since startup, for the JSON response. */
+    public Map<String, Object> report(RenderProfile profile, long pdfBytes) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("outcome", profile.outcome());
+        report.put("totalMs", millis(profile.nanos()));
+        report.put("allocatedBytes", profile.allocatedBytes());
+        report.put("pdfBytes", pdfBytes);
+        Map<String, Double> stages = new LinkedHashMap<>();
+        profile.stageNanos().forEach((stage, nanos) -> stages.put(stage, millis(nanos)));
+        report.put("stagesMs", stages);
+        report.put("counts", profile.counts());
+
+        Map<String, Object> caches = new LinkedHashMap<>();
+        long resultHits = resultCache.memoryHits() + resultCache.diskHits();
+        caches.put("result", ratio(resultHits, resultCache.misses()));
+        resourceCache.stats().forEach((source, stats) -> caches.put(source, ratio(stats.hits(), stats.misses())));
+        report.put("cacheHitRatios", caches);
+        return report;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1e5) / 10.0;
+    }
+
+    private static double ratio(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? 0 : Math.round(1000.0 * hits / total) / 1000.0;
+    }
+}
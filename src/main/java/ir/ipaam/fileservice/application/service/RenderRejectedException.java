@@ -0,0 +1,12 @@
+package ir.ipaam.fileservice.application.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class RenderRejectedException extends RuntimeException {
+
+    public RenderRejectedException(String message) {
+        super(message);
+    }
+}
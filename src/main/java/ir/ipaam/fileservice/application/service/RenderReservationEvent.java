@@ -0,0 +1,41 @@
+package ir.ipaam.fileservice.application.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a {@link RenderAdmissionController} reservation: the memory a render is about
+ * to allocate for its rasters or box tree. Lined up with GC events it names the document
+ * behind a burst of large allocations; its duration is the wait for budget.
+ */
+@Name("ir.ipaam.fileservice.RenderReservation")
+@Label("Render Memory Reservation")
+@Category({"File Service", "Render"})
+@Description("Render memory budget reserved before a large allocation")
+@StackTrace(false)
+final class RenderReservationEvent extends Event {
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Template")
+    String template;
+
+    @Label("Template Id")
+    String templateId;
+
+    @Label("Engine")
+    String engine;
+
+    @Label("Reserved")
+    @DataAmount
+    long bytes;
+
+    @Label("Granted")
+    boolean granted;
+}
@@ -0,0 +1,50 @@
+package ir.ipaam.fileservice.application.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one {@link RenderContext.Stage}, on the thread that ran it. Counts are those
+ * of the render so far, so stage {@code total} carries the whole render's pages and output.
+ * Recorded by any recording, e.g. {@code -XX:StartFlightRecording:maxage=1h}.
+ */
+@Name("ir.ipaam.fileservice.RenderStage")
+@Label("Render Stage")
+@Category({"File Service", "Render"})
+@Description("One stage of a PDF render")
+@StackTrace(false)
+final class RenderStageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Template")
+    String template;
+
+    @Label("Template Id")
+    String templateId;
+
+    @Label("Engine")
+    String engine;
+
+    @Label("Pages")
+    long pages;
+
+    @Label("Blocks")
+    long blocks;
+
+    @Label("Spans")
+    long spans;
+
+    @Label("Output Size")
+    @DataAmount
+    long outputBytes;
+}
@@ -0,0 +1,116 @@
+package ir.ipaam.fileservice.application.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pays the first-request costs before the service reports ready. It initializes Java2D's
+ * font manager and the ImageIO plugin registry, then renders each warm-up template on every
+ * engine a few times. Those renders load the fonts and font metrics, fill the resource cache
+ * and give the JIT its first profiles. As an application runner it finishes before readiness
+ * turns to ACCEPTING_TRAFFIC and before job workers start. A failed render is logged and
+ * skipped.
+ * <p>
+ * A CDS training run ({@code spring.context.exit=onRefresh}) stops before runners, so there
+ * the warm-up runs at the end of bean creation instead, and its classes go into the archive.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RenderWarmup implements ApplicationRunner, SmartInitializingSingleton {
+
+    private final RenderProperties renderProperties;
+    private final RenderEngineRegistry renderEngines;
+    private final ObjectMapper objectMapper;
+    private final Environment environment;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (isTrainingRun()) {
+            warmUp();
+        }
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!isTrainingRun()) {
+            warmUp();
+        }
+    }
+
+    private boolean isTrainingRun() {
+        return "onRefresh".equals(environment.getProperty("spring.context.exit"));
+    }
+
+    private void warmUp() {
+        RenderProperties.Warmup warmup = renderProperties.getWarmup();
+        if (!warmup.isEnabled()) {
+            return;
+        }
+        long start = System.nanoTime();
+        // one deadline for the whole warm-up
+        RenderContext ctx = RenderContext.withTimeout(warmup.getTimeout());
+        GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
+        ImageIO.getReaderFormatNames();
+        ImageIO.getWriterFormatNames();
+
+        int renders = 0;
+        try {
+            for (Map.Entry<String, String> template : warmup.getTemplates().entrySet()) {
+                Map<String, Object> model = readModel(template.getValue());
+                for (RenderEngine engine : renderEngines.engines()) {
+                    renders += warm(engine, template.getKey(), model, warmup.getRenders(), ctx);
+                }
+            }
+        } catch (RenderCancelledException e) {
+            log.warn("Render warm-up stopped at its {} deadline", warmup.getTimeout());
+        }
+        log.info("Render warm-up: {} renders in {} ms", renders,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private int warm(RenderEngine engine, String template, Map<String, Object> model, int times, RenderContext ctx) {
+        for (int i = 0; i < times; i++) {
+            try {
+                engine.render(template, model, ctx, OutputStream.nullOutputStream());
+            } catch (InvalidTemplateException e) {
+                log.debug("Skipping warm-up of {} on {}: {}", template, engine.name(), e.getMessage());
+                return i;
+            } catch (IOException | RuntimeException e) {
+                if (e instanceof RenderCancelledException cancelled) {
+                    throw cancelled;
+                }
+                log.warn("Warm-up render of {} on {} failed", template, engine.name(), e);
+                return i;
+            }
+        }
+        return times;
+    }
+
+    private Map<String, Object> readModel(String path) {
+        try (InputStream in = new ClassPathResource(path).getInputStream()) {
+            return objectMapper.readValue(in, new TypeReference<>() {
+            });
+        } catch (IOException e) {
+            log.warn("Cannot read warm-up model {}; rendering with an empty model", path, e);
+            return Map.of();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte-bounded LRU of resources read through {@link ResourceResolver}s. {@link #cached}
+ * decorates any resolver; entries of a {@link FileResourceResolver} are keyed by file and,
+ * when validation is on, re-read once the file's modification time changes. Images decoded
+ * through a cached resolver are kept with their bytes and count against the same budget.
+ * Hits, misses and bytes loaded are counted per source.
+ */
+@Component
+public class ResourceCache {
+
+    private static final long MB = 1024L * 1024L;
+
+    /** Counters of one source, as passed to {@link #cached}. */
+    public static final class Stats {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong bytesLoaded = new AtomicLong();
+
+        public long hits() {
+            return hits.get();
+        }
+
+        public long misses() {
+            return misses.get();
+        }
+
+        public long bytesLoaded() {
+            return bytesLoaded.get();
+        }
+    }
+
+    private static final class Entry {
+        final String key;
+        final byte[] bytes;
+        final FileTime modified;
+        long weight;
+        BufferedImage image;
+
+        Entry(String key, byte[] bytes, FileTime modified) {
+            this.key = key;
+            this.bytes = bytes;
+            this.modified = modified;
+            this.weight = bytes.length;
+        }
+    }
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final boolean validate;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    public ResourceCache(RenderProperties properties) {
+        RenderProperties.Resources resources = properties.getResources();
+        this.maxBytes = resources.getCacheMaxMb() * MB;
+        this.maxEntryBytes = resources.getMaxEntryMb() * MB;
+        this.validate = resources.isValidateModified();
+    }
+
+    /**
+     * {@code delegate} with its reads served from this cache. {@code source} names it in
+     * {@link #stats()} and, for non-file resolvers, scopes its keys; use one name per base.
+     */
+    public ResourceResolver cached(String source, ResourceResolver delegate) {
+        return cached(source, source, delegate);
+    }
+
+    /**
+     * As {@link #cached(String, ResourceResolver)} for many bases counted as one source:
+     * {@code scope} keys the entries of {@code delegate} apart from the others of {@code source}.
+     */
+    public ResourceResolver cached(String source, String scope, ResourceResolver delegate) {
+        Stats counters = stats.computeIfAbsent(source, s -> new Stats());
+        return new ResourceResolver() {
+            @Override
+            public InputStream open(String src) throws IOException {
+                return new ByteArrayInputStream(load(scope, delegate, src, counters).bytes);
+            }
+
+            @Override
+            public BufferedImage readImage(String src) throws IOException {
+                Entry entry = load(scope, delegate, src, counters);
+                synchronized (ResourceCache.this) {
+                    if (entry.image != null) {
+                        return entry.image;
+                    }
+                }
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(entry.bytes));
+                if (image != null) {
+                    synchronized (ResourceCache.this) {
+                        if (entry.image == null && entries.get(entry.key) == entry) {
+                            entry.image = image;
+                            long pixels = (long) image.getWidth() * image.getHeight() * 4;
+                            entry.weight += pixels;
+                            bytes += pixels;
+                            evict();
+                        }
+                    }
+                }
+                return image;
+            }
+        };
+    }
+
+    /** Counters by source name. */
+    public Map<String, Stats> stats() {
+        return Collections.unmodifiableMap(new TreeMap<>(stats));
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    private Entry load(String scope, ResourceResolver delegate, String src, Stats counters) throws IOException {
+        String key;
+        FileTime modified = null;
+        if (delegate instanceof FileResourceResolver files) {
+            Path file = files.pathOf(src);
+            key = file.toString();
+            if (validate) {
+                try {
+                    modified = Files.getLastModifiedTime(file);
+                } catch (NoSuchFileException e) {
+                    invalidate(key);
+                    throw new FileNotFoundException(file.toString());
+                }
+            }
+        } else {
+            key = scope + '\n' + src;
+        }
+
+        synchronized (this) {
+            Entry hit = entries.get(key);
+            if (hit != null && (modified == null || modified.equals(hit.modified))) {
+                counters.hits.incrementAndGet();
+                return hit;
+            }
+        }
+
+        counters.misses.incrementAndGet();
+        byte[] data;
+        try (InputStream in = delegate.open(src)) {
+            data = in.readAllBytes();
+        }
+        counters.bytesLoaded.addAndGet(data.length);
+        Entry loaded = new Entry(key, data, modified);
+        if (data.length <= maxEntryBytes) {
+            synchronized (this) {
+                Entry previous = entries.put(key, loaded);
+                if (previous != null) {
+                    bytes -= previous.weight;
+                }
+                bytes += loaded.weight;
+                evict();
+            }
+        }
+        return loaded;
+    }
+
+    private synchronized void invalidate(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.weight;
+        }
+    }
+
+    // caller holds the lock
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().weight;
+            it.remove();
+        }
+    }
+}
@@ -1,9 +1,18 @@
 package ir.ipaam.fileservice.application.service;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
 
 @FunctionalInterface
 public interface ResourceResolver {
     InputStream open(String src) throws IOException;
+
+    /** Decodes the image at {@code src}; null when no registered reader understands it. */
+    default BufferedImage readImage(String src) throws IOException {
+        try (InputStream in = open(src)) {
+            return ImageIO.read(in);
+        }
+    }
 }
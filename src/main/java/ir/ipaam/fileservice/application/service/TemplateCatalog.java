@@ -0,0 +1,140 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.util.ContentHash;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * The templates shipped on the classpath ({@code morabehe/}, {@code mika_contract/}), by
+ * directory name. The {@code precompile-templates} build profile compiles them into
+ * {@code template-catalog/<name>.tpl}; those are memory-mapped and read at startup. A template
+ * without a usable catalog entry (not precompiled, or built for other engine options) is
+ * compiled from its sources on first use.
+ */
+@Slf4j
+@Service
+public class TemplateCatalog {
+
+    public static final String DEFAULT_TEMPLATE = "morabehe";
+
+    static final String CATALOG_DIR = "template-catalog";
+
+    private static final int MAGIC = 0x46535443; // "FSTC"
+    private static final int FORMAT_VERSION = 1;
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final Map<String, CompiledTemplate> templates = new ConcurrentHashMap<>();
+
+    public TemplateCatalog() throws IOException {
+        long start = System.nanoTime();
+        Resource[] entries = new PathMatchingResourcePatternResolver()
+                .getResources("classpath*:" + CATALOG_DIR + "/*.tpl");
+        for (Resource entry : entries) {
+            load(entry);
+        }
+        if (!templates.isEmpty()) {
+            log.info("Loaded precompiled templates {} in {} ms", templates.keySet(),
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /** The template in classpath directory {@code name}. */
+    public CompiledTemplate get(String name) {
+        return templates.computeIfAbsent(checkName(name), TemplateCatalog::compileFromClasspath);
+    }
+
+    /**
+     * {@code name}, if the classpath has a template directory of that name. Checked before a
+     * name is used as a metric tag, so unknown names are rejected rather than metered.
+     */
+    public String resolve(String name) {
+        if (!templates.containsKey(checkName(name))
+                && HtmlToPdfService.class.getResource("/" + name + "/index.html") == null) {
+            throw new TemplateNotFoundException("Unknown template " + name);
+        }
+        return name;
+    }
+
+    /** {@code name}, if it can name a template directory. */
+    static String checkName(String name) {
+        if (name == null || !NAME.matcher(name).matches()) {
+            throw new TemplateNotFoundException("Unknown template " + name);
+        }
+        return name;
+    }
+
+    /** Compiles {@code <name>/index.html} and {@code <name>/style.css}; the id hashes both. */
+    static CompiledTemplate compileFromClasspath(String name) {
+        try (InputStream htmlIn = HtmlToPdfService.class.getResourceAsStream("/" + name + "/index.html");
+             InputStream cssIn = HtmlToPdfService.class.getResourceAsStream("/" + name + "/style.css")) {
+            if (htmlIn == null) {
+                throw new TemplateNotFoundException("Unknown template " + name);
+            }
+            byte[] html = htmlIn.readAllBytes();
+            byte[] css = cssIn != null ? cssIn.readAllBytes() : new byte[0];
+            return HtmlToPdfService.compile(
+                    ContentHash.start().add(html).add(css).hex(),
+                    new String(html, StandardCharsets.UTF_8),
+                    new String(css, StandardCharsets.UTF_8),
+                    HtmlToPdfService.classpathResolver(name)
+            );
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read template " + name, e);
+        }
+    }
+
+    static void write(String name, CompiledTemplate template, Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            CompiledTemplate.writeString(out, HtmlToPdfService.ENGINE_OPTIONS);
+            CompiledTemplate.writeString(out, name);
+            template.writeTo(out);
+        }
+    }
+
+    private void load(Resource entry) {
+        try {
+            ByteBuffer in;
+            if (entry.isFile()) {
+                try (FileChannel channel = FileChannel.open(entry.getFile().toPath(), StandardOpenOption.READ)) {
+                    in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            } else {
+                // nested in the boot jar; cannot be mapped
+                try (InputStream stream = entry.getInputStream()) {
+                    in = ByteBuffer.wrap(stream.readAllBytes());
+                }
+            }
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+                log.warn("Ignoring template catalog entry {}: unknown format", entry.getFilename());
+                return;
+            }
+            String engineOptions = CompiledTemplate.readString(in);
+            if (!HtmlToPdfService.ENGINE_OPTIONS.equals(engineOptions)) {
+                log.warn("Ignoring template catalog entry {}: built for {}", entry.getFilename(), engineOptions);
+                return;
+            }
+            String name = CompiledTemplate.readString(in);
+            templates.put(name, CompiledTemplate.readFrom(in, HtmlToPdfService.classpathResolver(name)));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring template catalog entry {}: {}", entry.getFilename(), e.toString());
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package ir.ipaam.fileservice.application.service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Build step behind the {@code precompile-templates} profile: compiles classpath template
+ * directories into {@link TemplateCatalog} entries.
+ * <p>
+ * Usage: {@code TemplateCatalogCompiler <output dir> <template name>...}
+ */
+public final class TemplateCatalogCompiler {
+
+    private TemplateCatalogCompiler() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: TemplateCatalogCompiler <output dir> <template name>...");
+        }
+        Path outDir = Paths.get(args[0]);
+        Files.createDirectories(outDir);
+        for (int i = 1; i < args.length; i++) {
+            String name = args[i];
+            CompiledTemplate template = TemplateCatalog.compileFromClasspath(name);
+            Path file = outDir.resolve(name + ".tpl");
+            TemplateCatalog.write(name, template, file);
+            System.out.printf("Precompiled template %s (%d placeholders, %d images) -> %s (%d bytes)%n",
+                    name, template.placeholders().size(), template.imageCount(), file, Files.size(file));
+        }
+    }
+}
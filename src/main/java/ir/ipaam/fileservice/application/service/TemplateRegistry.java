@@ -0,0 +1,273 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import ir.ipaam.fileservice.domain.model.PdfArtifact;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Registered template bundles, addressed by the SHA-256 of the uploaded ZIP. The bundle is
+ * kept in the {@link PdfArtifactStore}; its {@link CompiledTemplate} is built in the
+ * background on the render executor and kept in a bounded in-memory LRU. A template dropped
+ * from memory, or registered on another instance, is recompiled from the store on first use;
+ * that needs the artifact directory shared by all instances, and a template whose bundle this
+ * instance cannot read is reported as not registered. A compile that fails on the bundle
+ * itself stays failed; one that ran out of scratch space or budget is tried again on the next
+ * render. Looking a template up never compiles it. Images whose source comes from the model
+ * are read from the stored bundle when rendered, through the {@link ResourceCache}.
+ */
+@Slf4j
+@Service
+public class TemplateRegistry {
+
+    public static final String CONTENT_TYPE = "application/vnd.fileservice.template+zip";
+
+    // fixed so that registering the same HTML and CSS twice packs identical bytes
+    private static final LocalDateTime PACKED_ENTRY_TIME = LocalDateTime.of(1980, 1, 1, 0, 0);
+
+    /** {@code STORED}: registered, and compiled here on its first render. */
+    public enum Status { STORED, COMPILING, READY, FAILED }
+
+    public record Registration(String id, Status status, Integer images, String error) {
+    }
+
+    private static final long MB = 1024L * 1024L;
+
+    private final PdfArtifactStore artifactStore;
+    private final ZipIngestor zipIngestor;
+    private final ExecutorService renderExecutor;
+    private final ResourceCache resourceCache;
+    private final long maxEntryBytes;
+    private final Map<String, CompletableFuture<CompiledTemplate>> compiled;
+
+    public TemplateRegistry(PdfArtifactStore artifactStore, ZipIngestor zipIngestor, ExecutorService renderExecutor,
+                            ResourceCache resourceCache, RenderProperties properties) {
+        this.artifactStore = artifactStore;
+        this.zipIngestor = zipIngestor;
+        this.renderExecutor = renderExecutor;
+        this.resourceCache = resourceCache;
+        this.maxEntryBytes = properties.getZip().getMemoryMaxMb() * MB;
+        int maxCompiled = Math.max(1, properties.getTemplates().getMaxCompiled());
+        this.compiled = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<CompiledTemplate>> eldest) {
+                return size() > maxCompiled;
+            }
+        };
+    }
+
+    /**
+     * Checks the ZIP (HTML, CSS and the images it references) against the ingest limits, then
+     * stores it and starts compiling it. A ZIP that breaks a limit or holds no HTML is rejected
+     * with {@link InvalidZipException} and not stored.
+     */
+    public Registration register(InputStream zip) throws IOException {
+        Path upload = Files.createTempFile("fileservice-template-", ".zip");
+        try {
+            Files.copy(zip, upload, StandardCopyOption.REPLACE_EXISTING);
+            try (InputStream in = Files.newInputStream(upload);
+                 ZipBundle bundle = zipIngestor.ingest(in)) {
+                if (bundle.findFirst(".html").isEmpty()) {
+                    throw new InvalidZipException("No HTML file found in ZIP");
+                }
+            }
+            PdfArtifact artifact;
+            try (InputStream in = Files.newInputStream(upload)) {
+                artifact = artifactStore.store(in, CONTENT_TYPE);
+            }
+            return describe(artifact.getSha256(), compile(artifact.getSha256()));
+        } finally {
+            Files.deleteIfExists(upload);
+        }
+    }
+
+    /** Registers markup without assets; it is packed into a ZIP and handled like an upload. */
+    public Registration register(String html, String css) throws IOException {
+        PdfArtifact artifact = artifactStore.store(out -> {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            putEntry(zip, "index.html", html);
+            if (css != null && !css.isBlank()) {
+                putEntry(zip, "style.css", css);
+            }
+            zip.finish();
+        }, CONTENT_TYPE);
+        return describe(artifact.getSha256(), compile(artifact.getSha256()));
+    }
+
+    public Optional<Registration> find(String id) {
+        synchronized (compiled) {
+            CompletableFuture<CompiledTemplate> future = compiled.get(id);
+            if (future != null) {
+                return Optional.of(describe(id, future));
+            }
+        }
+        return stored(id).map(artifact -> new Registration(id, Status.STORED, null, null));
+    }
+
+    /**
+     * The compiled template, waiting up to {@code timeout} for a compile in progress.
+     */
+    public CompiledTemplate await(String id, Duration timeout) {
+        CompletableFuture<CompiledTemplate> future = lookup(id)
+                .orElseThrow(() -> new TemplateNotFoundException("Template not registered: " + id));
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = cause(e.getCause());
+            if (cause instanceof RenderRejectedException rejected) {
+                throw rejected;
+            }
+            throw new InvalidTemplateException("Template " + id + " failed to compile: " + cause.getMessage(), cause);
+        } catch (TimeoutException e) {
+            throw new RenderRejectedException("Template " + id + " is still compiling");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RenderCancelledException("Interrupted while waiting for template " + id);
+        }
+    }
+
+    private Optional<CompletableFuture<CompiledTemplate>> lookup(String id) {
+        synchronized (compiled) {
+            CompletableFuture<CompiledTemplate> future = compiled.get(id);
+            if (future != null) {
+                return Optional.of(future);
+            }
+        }
+        return stored(id).map(artifact -> compile(id));
+    }
+
+    private Optional<PdfArtifact> stored(String id) {
+        return artifactStore.find(id)
+                .filter(artifact -> CONTENT_TYPE.equals(artifact.getContentType()))
+                .filter(artifactStore::isAvailable);
+    }
+
+    private CompletableFuture<CompiledTemplate> compile(String id) {
+        synchronized (compiled) {
+            CompletableFuture<CompiledTemplate> existing = compiled.get(id);
+            if (existing != null) {
+                return existing;
+            }
+            CompletableFuture<CompiledTemplate> future = CompletableFuture.supplyAsync(() -> doCompile(id), renderExecutor);
+            compiled.put(id, future);
+            future.whenComplete((template, error) -> {
+                if (error != null) {
+                    log.warn("Template {} failed to compile: {}", id, cause(error).getMessage());
+                    if (isTransient(cause(error))) {
+                        synchronized (compiled) {
+                            compiled.remove(id, future);
+                        }
+                    }
+                }
+            });
+            return future;
+        }
+    }
+
+    // Bad markup or a bad bundle fails the same way every time, so it stays failed instead of
+    // being compiled again on every render; running out of scratch space or render budget, or
+    // failing to read the stored bundle, may pass on the next use
+    private static boolean isTransient(Throwable cause) {
+        return cause instanceof RenderRejectedException
+                || cause instanceof IOException && !(cause instanceof ZipException) && !(cause instanceof FileNotFoundException);
+    }
+
+    private static Throwable cause(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof UncheckedIOException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private CompiledTemplate doCompile(String id) {
+        long start = System.nanoTime();
+        try (InputStream in = Files.newInputStream(artifactStore.path(id));
+             ZipBundle bundle = zipIngestor.ingest(in)) {
+            String html = bundle.findFirst(".html")
+                    .orElseThrow(() -> new FileNotFoundException("No HTML file found in ZIP"));
+            Optional<String> css = bundle.findFirst(".css");
+            CompiledTemplate template = HtmlToPdfService.compile(
+                    id,
+                    new String(bundle.read(html), StandardCharsets.UTF_8),
+                    css.isPresent() ? new String(bundle.read(css.get()), StandardCharsets.UTF_8) : "",
+                    bundle.relativeTo(html),
+                    // the ingested bundle is released after compiling; renders read the stored ZIP
+                    resourceCache.cached("templates", id, storedEntries(id, html))
+            );
+            log.info("Compiled template {} ({} images) in {} ms", id, template.imageCount(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return template;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Entries of the stored ZIP relative to the HTML entry, read by random access to its central directory
+    private ResourceResolver storedEntries(String id, String html) {
+        int slash = html.lastIndexOf('/');
+        String baseDir = slash >= 0 ? html.substring(0, slash + 1) : "";
+        return src -> {
+            String name = ZipBundle.resolve(baseDir, src);
+            try (ZipFile zip = new ZipFile(artifactStore.path(id).toFile())) {
+                ZipEntry entry = zip.getEntry(name);
+                if (entry == null || entry.isDirectory()) {
+                    throw new FileNotFoundException("Not found in template " + id + ": " + name);
+                }
+                byte[] bytes;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    bytes = in.readNBytes((int) Math.min(Integer.MAX_VALUE - 8, maxEntryBytes + 1));
+                }
+                if (bytes.length > maxEntryBytes) {
+                    throw new FileNotFoundException("Entry " + name + " of template " + id
+                            + " is larger than fileservice.render.zip.memory-max-mb");
+                }
+                return new ByteArrayInputStream(bytes);
+            }
+        };
+    }
+
+    private static Registration describe(String id, CompletableFuture<CompiledTemplate> future) {
+        if (!future.isDone()) {
+            return new Registration(id, Status.COMPILING, null, null);
+        }
+        if (future.isCompletedExceptionally()) {
+            return new Registration(id, Status.FAILED, null, cause(future.exceptionNow()).getMessage());
+        }
+        return new Registration(id, Status.READY, future.resultNow().imageCount(), null);
+    }
+
+    private static void putEntry(ZipOutputStream zip, String name, String content) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTimeLocal(PACKED_ENTRY_TIME);
+        zip.putNextEntry(entry);
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,120 @@
+package ir.ipaam.fileservice.application.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A ZIP upload ingested by {@link ZipIngestor}: small entries on the heap, large ones in the
+ * scratch area. {@link #close()} deletes the spilled files and returns their scratch quota.
+ */
+public final class ZipBundle implements ResourceResolver, AutoCloseable {
+
+    record Entry(String name, String sha256, long size, byte[] bytes, Path spilled) {
+    }
+
+    private final Map<String, Entry> entries;
+    private final String contentHash;
+    private final Runnable release;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    ZipBundle(Map<String, Entry> entries, String contentHash, Runnable release) {
+        this.entries = entries;
+        this.contentHash = contentHash;
+        this.release = release;
+    }
+
+    /** SHA-256 over the sorted entry names and their content hashes; independent of archive order. */
+    public String contentHash() {
+        return contentHash;
+    }
+
+    /** First entry, in archive order, whose name ends with {@code extension} (case-insensitive). */
+    public Optional<String> findFirst(String extension) {
+        String ext = extension.toLowerCase(Locale.ROOT);
+        return entries.keySet().stream()
+                .filter(name -> name.toLowerCase(Locale.ROOT).endsWith(ext))
+                .findFirst();
+    }
+
+    public byte[] read(String name) throws IOException {
+        try (InputStream in = openEntry(name)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /** Resolves relative references against the directory of {@code entryName}. */
+    public ResourceResolver relativeTo(String entryName) {
+        int slash = entryName.lastIndexOf('/');
+        String baseDir = slash >= 0 ? entryName.substring(0, slash + 1) : "";
+        return src -> open(baseDir, src);
+    }
+
+    @Override
+    public InputStream open(String src) throws IOException {
+        return open("", src);
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            release.run();
+        }
+    }
+
+    private InputStream open(String baseDir, String src) throws IOException {
+        return openEntry(resolve(baseDir, src));
+    }
+
+    /** The entry name {@code src} refers to from directory {@code baseDir} of the archive. */
+    static String resolve(String baseDir, String src) throws FileNotFoundException {
+        String path = src.replace('\\', '/');
+        if (path.startsWith("file:") || path.contains("://")) {
+            throw new FileNotFoundException("Only archive-relative references are served from a ZIP: " + src);
+        }
+        String resolved = normalize(path.startsWith("/") ? path : baseDir + path);
+        if (resolved == null) {
+            throw new FileNotFoundException("Reference escapes the archive: " + src);
+        }
+        return resolved;
+    }
+
+    // Collapses "." and ".." segments; null when the path climbs above the archive root
+    static String normalize(String path) {
+        Deque<String> parts = new ArrayDeque<>();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                if (parts.isEmpty()) {
+                    return null;
+                }
+                parts.removeLast();
+            } else {
+                parts.addLast(segment);
+            }
+        }
+        return String.join("/", parts);
+    }
+
+    private InputStream openEntry(String name) throws IOException {
+        Entry e = entries.get(name);
+        if (e == null) {
+            throw new FileNotFoundException("Not found in ZIP: " + name);
+        }
+        if (closed.get()) {
+            throw new IllegalStateException("ZIP bundle already released");
+        }
+        return e.bytes() != null ? new ByteArrayInputStream(e.bytes()) : Files.newInputStream(e.spilled());
+    }
+}
@@ -0,0 +1,194 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import ir.ipaam.fileservice.application.util.ContentHash;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads a ZIP upload as a stream, entry by entry, hashing each entry as it arrives.
+ * HTML and CSS, and binary entries under the spill threshold, stay on the heap within a
+ * per-upload budget; everything else is spilled to a scratch area shared by all uploads
+ * and bounded in bytes. Markup cannot spill, so an upload whose markup outgrows the heap
+ * budget is rejected. Ingest memory therefore follows the largest kept entry, not the
+ * upload size.
+ */
+@Slf4j
+@Component
+public class ZipIngestor {
+
+    private static final long KB = 1024L;
+    private static final long MB = 1024L * 1024L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long spillThreshold;
+    private final long memoryBudget;
+    private final long scratchMax;
+    private final Path scratchDir;
+    private final AtomicLong scratchUsed = new AtomicLong();
+
+    public ZipIngestor(RenderProperties properties) {
+        RenderProperties.Zip zip = properties.getZip();
+        this.spillThreshold = zip.getSpillThresholdKb() * KB;
+        this.memoryBudget = zip.getMemoryMaxMb() * MB;
+        this.scratchMax = zip.getScratchMaxMb() * MB;
+        this.scratchDir = Paths.get(zip.getScratchDir());
+        try {
+            Files.createDirectories(scratchDir);
+            // spills of a previous run are never released by anyone else
+            try (Stream<Path> stale = Files.list(scratchDir)) {
+                stale.forEach(ZipIngestor::deleteQuietly);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot initialise ZIP scratch area " + scratchDir, e);
+        }
+    }
+
+    public ZipBundle ingest(InputStream upload) throws IOException {
+        Map<String, ZipBundle.Entry> entries = new LinkedHashMap<>();
+        Map<String, String> hashes = new TreeMap<>();
+        List<Path> spilled = new ArrayList<>();
+        long[] reserved = {0};
+        long heapUsed = 0;
+
+        boolean ok = false;
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(upload, BUFFER_SIZE))) {
+            ZipEntry ze;
+            while ((ze = zip.getNextEntry()) != null) {
+                if (ze.isDirectory()) {
+                    continue;
+                }
+                String name = ZipBundle.normalize(ze.getName().replace('\\', '/'));
+                if (name == null || name.isEmpty()) {
+                    throw new InvalidZipException("ZIP entry outside archive root: " + ze.getName());
+                }
+                boolean markup = isMarkup(name);
+                long heapLimit = markup ? memoryBudget - heapUsed : Math.min(spillThreshold, memoryBudget - heapUsed);
+
+                ZipBundle.Entry entry = readEntry(name, zip, heapLimit, !markup, spilled, reserved);
+                if (entry.bytes() != null) {
+                    heapUsed += entry.size();
+                }
+                entries.put(name, entry);
+                hashes.put(name, entry.sha256());
+            }
+            ok = true;
+        } finally {
+            if (!ok) {
+                release(spilled, reserved[0]);
+            }
+        }
+
+        ContentHash hash = ContentHash.start();
+        hashes.forEach((name, sha) -> hash.add(name).add(sha));
+        long scratchBytes = reserved[0];
+        log.debug("Ingested ZIP: {} entries, {} bytes on heap, {} spilled ({} bytes)",
+                entries.size(), heapUsed, spilled.size(), scratchBytes);
+        return new ZipBundle(entries, hash.hex(), () -> release(spilled, scratchBytes));
+    }
+
+    /** Bytes of spilled entries currently held by in-flight uploads. */
+    public long scratchUsed() {
+        return scratchUsed.get();
+    }
+
+    private ZipBundle.Entry readEntry(String name, InputStream in, long heapLimit, boolean spillable,
+                                      List<Path> spilled, long[] reserved) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buf = new byte[BUFFER_SIZE];
+        ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        OutputStream file = null;
+        Path path = null;
+        long size = 0;
+        try {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                digest.update(buf, 0, n);
+                size += n;
+                if (file == null && size > heapLimit) {
+                    if (!spillable) {
+                        // markup is parsed from the heap; a decompression bomb must not get there
+                        throw new InvalidZipException("HTML and CSS in the ZIP exceed "
+                                + memoryBudget / MB + " MB (fileservice.render.zip.memory-max-mb) at " + name);
+                    }
+                    path = Files.createTempFile(scratchDir, "entry-", ".bin");
+                    spilled.add(path);
+                    file = Files.newOutputStream(path);
+                    reserve(heap.size(), reserved);
+                    heap.writeTo(file);
+                    heap = null;
+                }
+                if (file != null) {
+                    reserve(n, reserved);
+                    file.write(buf, 0, n);
+                } else {
+                    heap.write(buf, 0, n);
+                }
+            }
+        } finally {
+            if (file != null) {
+                file.close();
+            }
+        }
+        String sha = HexFormat.of().formatHex(digest.digest());
+        return file == null
+                ? new ZipBundle.Entry(name, sha, size, heap.toByteArray(), null)
+                : new ZipBundle.Entry(name, sha, size, null, path);
+    }
+
+    private void reserve(long bytes, long[] reserved) {
+        if (scratchUsed.addAndGet(bytes) > scratchMax) {
+            scratchUsed.addAndGet(-bytes);
+            throw new RenderRejectedException("ZIP scratch area is full; retry later");
+        }
+        reserved[0] += bytes;
+    }
+
+    private void release(List<Path> spilled, long bytes) {
+        spilled.forEach(ZipIngestor::deleteQuietly);
+        scratchUsed.addAndGet(-bytes);
+    }
+
+    private static boolean isMarkup(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".html") || lower.endsWith(".htm") || lower.endsWith(".css");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static void deleteQuietly(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (IOException ignore) {
+        }
+    }
+}
@@ -6,56 +6,83 @@ import com.ibm.icu.text.Bidi;
 
 public final class ArabicTextUtils {
 
+    // immutable once built, so one instance serves every thread
+    private static final ArabicShaping SHAPER = new ArabicShaping(
+            ArabicShaping.LETTERS_SHAPE | ArabicShaping.TEXT_DIRECTION_LOGICAL
+    );
+
+    // Bidi is stateful but reusable through setPara
+    private static final ThreadLocal<Bidi> BIDI = ThreadLocal.withInitial(Bidi::new);
+
     private ArabicTextUtils() {
     }
 
     public static String shapeArabicText(String html) {
-        StringBuilder out = new StringBuilder();
-        StringBuilder textBuffer = new StringBuilder();
-        boolean inTag = false;
+        StringBuilder out = new StringBuilder(html.length() + 16);
+        shapeArabicText(html, out);
+        return out.toString();
+    }
 
-        ArabicShaping shaper = new ArabicShaping(
-                ArabicShaping.LETTERS_SHAPE | ArabicShaping.TEXT_DIRECTION_LOGICAL
-        );
+    /**
+     * Shapes and visually reorders the text between tags of {@code html} in one pass,
+     * appending to {@code out}; tags are copied unchanged. As in the shaper this replaced,
+     * {@code <} opens a tag anywhere and only the next {@code >} closes it, so a {@code >}
+     * outside a tag is shaped as text.
+     */
+    public static void shapeArabicText(CharSequence html, StringBuilder out) {
+        int textStart = -1;
+        boolean inTag = false;
 
-        for (char c : html.toCharArray()) {
+        for (int i = 0, n = html.length(); i < n; i++) {
+            char c = html.charAt(i);
             if (c == '<') {
-                if (textBuffer.length() > 0) {
-                    out.append(applyArabicShaping(textBuffer.toString(), shaper));
-                    textBuffer.setLength(0);
+                if (textStart >= 0) {
+                    appendShaped(html, textStart, i, out);
+                    textStart = -1;
                 }
                 inTag = true;
                 out.append(c);
-            } else if (c == '>') {
-                inTag = false;
-                out.append(c);
             } else if (inTag) {
+                if (c == '>') {
+                    inTag = false;
+                }
                 out.append(c);
-            } else {
-                textBuffer.append(c);
+            } else if (textStart < 0) {
+                textStart = i;
             }
         }
 
-        if (textBuffer.length() > 0) {
-            out.append(applyArabicShaping(textBuffer.toString(), shaper));
+        if (textStart >= 0) {
+            appendShaped(html, textStart, html.length(), out);
         }
-
-        return out.toString();
     }
 
-    private static String applyArabicShaping(String text, ArabicShaping shaper) {
+    private static void appendShaped(CharSequence html, int start, int end, StringBuilder out) {
+        String text = html.subSequence(start, end).toString();
+        String shaped;
         try {
-            String shaped = shaper.shape(text);
-            Bidi bidi = new Bidi(shaped, Bidi.REORDER_INVERSE_LIKE_DIRECT);
-            String reordered = bidi.writeReordered(Bidi.DO_MIRRORING);
-            reordered = reordered.replace("گ", "\uE001")
-                    .replace("چ", "\uE002")
-                    .replace("پ", "\uE003")
-                    .replace("ژ", "\uE004");
-
-            return reordered;
+            shaped = SHAPER.shape(text);
         } catch (ArabicShapingException e) {
-            return text;
+            out.append(text);
+            return;
         }
+        // same paragraph level as new Bidi(shaped, REORDER_INVERSE_LIKE_DIRECT), which falls back to LTR
+        Bidi bidi = BIDI.get();
+        bidi.setPara(shaped, Bidi.LTR, null);
+        String reordered = bidi.writeReordered(Bidi.DO_MIRRORING);
+        for (int i = 0, n = reordered.length(); i < n; i++) {
+            out.append(remapGlyph(reordered.charAt(i)));
+        }
+    }
+
+    // Persian letters the bundled fonts carry in the private use area
+    private static char remapGlyph(char c) {
+        return switch (c) {
+            case 'گ' -> '\uE001';
+            case 'چ' -> '\uE002';
+            case 'پ' -> '\uE003';
+            case 'ژ' -> '\uE004';
+            default -> c;
+        };
     }
 }
@@ -0,0 +1,58 @@
+package ir.ipaam.fileservice.application.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Stable SHA-256 over the inputs of a render. Every part is length-prefixed so adjacent
+ * parts cannot collide, and models are hashed as canonical (key-sorted) JSON.
+ */
+public final class ContentHash {
+
+    private static final ObjectMapper CANONICAL = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private final MessageDigest digest;
+
+    private ContentHash() {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static ContentHash start() {
+        return new ContentHash();
+    }
+
+    public ContentHash add(byte[] bytes) {
+        byte[] data = bytes == null ? new byte[0] : bytes;
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(data.length).array());
+        digest.update(data);
+        return this;
+    }
+
+    public ContentHash add(String text) {
+        return add(text == null ? null : text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public ContentHash addJson(Object value) {
+        try {
+            return add(CANONICAL.writeValueAsBytes(value));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Model is not serializable: " + e.getMessage(), e);
+        }
+    }
+
+    public String hex() {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,8 @@
+package ir.ipaam.fileservice.domain.command;
+
+import ir.ipaam.fileservice.api.dto.ContractRequest;
+
+import java.util.List;
+
+public record GeneratePdfBatchCommand(List<ContractRequest> requests, boolean merged) {
+}
@@ -0,0 +1,6 @@
+package ir.ipaam.fileservice.domain.command;
+
+import java.util.Map;
+
+public record GeneratePdfFromRegisteredTemplateCommand(String templateId, Map<String, Object> model) {
+}
@@ -2,5 +2,5 @@ package ir.ipaam.fileservice.domain.command;
 
 import java.util.Map;
 
-public record GeneratePdfFromTemplateCommand(Map<String, Object> model) {
+public record GeneratePdfFromTemplateCommand(String template, Map<String, Object> model) {
 }
@@ -1,4 +1,6 @@
 package ir.ipaam.fileservice.domain.command;
 
-public record GeneratePdfFromZipCommand(byte[] zipContent, String modelJson) {
+import ir.ipaam.fileservice.application.service.ZipBundle;
+
+public record GeneratePdfFromZipCommand(ZipBundle bundle, String modelJson) {
 }
@@ -0,0 +1,8 @@
+package ir.ipaam.fileservice.domain.command;
+
+import ir.ipaam.fileservice.application.service.PagePreview;
+
+import java.util.Map;
+
+public record GeneratePreviewFromTemplateCommand(String template, Map<String, Object> model, PagePreview preview) {
+}
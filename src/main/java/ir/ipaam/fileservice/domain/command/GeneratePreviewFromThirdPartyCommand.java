@@ -0,0 +1,7 @@
+package ir.ipaam.fileservice.domain.command;
+
+import ir.ipaam.fileservice.api.dto.ContractRequest;
+import ir.ipaam.fileservice.application.service.PagePreview;
+
+public record GeneratePreviewFromThirdPartyCommand(ContractRequest request, PagePreview preview) {
+}
@@ -1,11 +1,52 @@
 package ir.ipaam.fileservice.domain.dto;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Objects;
 
-public record PdfGenerationResult(String fileName, byte[] pdfBytes) {
+/**
+ * A rendered (or yet to be rendered) document. The body is written straight to the
+ * caller's stream, so a render can go to the HTTP response without an intermediate copy.
+ * {@code contentLength} is only known when the bytes already exist, e.g. on a cache hit.
+ */
+public record PdfGenerationResult(String fileName, String etag, Long contentLength, Body body) {
+
+    @FunctionalInterface
+    public interface Body {
+        void writeTo(OutputStream out) throws IOException;
+    }
 
     public PdfGenerationResult {
         Objects.requireNonNull(fileName, "fileName");
-        Objects.requireNonNull(pdfBytes, "pdfBytes");
+        Objects.requireNonNull(body, "body");
+    }
+
+    public PdfGenerationResult(String fileName, byte[] pdfBytes) {
+        this(fileName, pdfBytes, null);
+    }
+
+    public PdfGenerationResult(String fileName, byte[] pdfBytes, String etag) {
+        this(fileName, etag, (long) pdfBytes.length, out -> out.write(pdfBytes));
+    }
+
+    public static PdfGenerationResult streamed(String fileName, String etag, Body body) {
+        return new PdfGenerationResult(fileName, etag, null, body);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        body.writeTo(out);
+    }
+
+    /** The same result, closing {@code resource} once the body has been written (or has failed). */
+    public PdfGenerationResult closingAfterWrite(AutoCloseable resource) {
+        return new PdfGenerationResult(fileName, etag, contentLength, out -> {
+            try (resource) {
+                body.writeTo(out);
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        });
     }
 }
@@ -11,6 +11,8 @@ import lombok.Setter;
 @AllArgsConstructor
 public class PdfCreatedEvent {
     private String conversionId;
-    private String text;
-    private byte[] pdfBytes;
+    private String fileName;
+    /** SHA-256 of the PDF in the artifact store; the bytes themselves stay out of the event stream. */
+    private String artifactSha256;
+    private long sizeBytes;
 }
@@ -0,0 +1,36 @@
+package ir.ipaam.fileservice.domain.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * Metadata of a blob in the local artifact store. The id is the SHA-256 of the bytes,
+ * which also names the file, so identical outputs are stored once.
+ */
+@Entity
+@Table(name = "pdf_artifact")
+@Getter
+@Setter
+@NoArgsConstructor
+public class PdfArtifact {
+
+    @Id
+    @Column(length = 64)
+    private String sha256;
+
+    @Column(name = "size_bytes", nullable = false)
+    private long sizeBytes;
+
+    @Column(name = "content_type", nullable = false, length = 100)
+    private String contentType;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+}
@@ -0,0 +1,78 @@
+package ir.ipaam.fileservice.domain.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.time.Instant;
+
+/**
+ * A render submitted through the job API. The row is the queue entry, the lease held by
+ * the worker that claimed it, and the outcome with its timings.
+ */
+@Entity
+@Table(name = "render_job", indexes = @Index(name = "idx_render_job_claim", columnList = "status, created_at"))
+@Getter
+@Setter
+@NoArgsConstructor
+public class RenderJob {
+
+    @Id
+    @Column(length = 36)
+    private String id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private RenderJobStatus status;
+
+    /** Simple name of the render command stored in {@link #payload}. */
+    @Column(name = "command_type", nullable = false, length = 64)
+    private String commandType;
+
+    @JdbcTypeCode(SqlTypes.LONG32VARCHAR)
+    @Column(nullable = false)
+    private String payload;
+
+    private int attempts;
+
+    @Column(name = "worker_id", length = 128)
+    private String workerId;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @Column(name = "started_at")
+    private Instant startedAt;
+
+    @Column(name = "finished_at")
+    private Instant finishedAt;
+
+    /** A RUNNING job whose lease has passed belongs to a dead worker and is claimed again. */
+    @Column(name = "lease_expires_at")
+    private Instant leaseExpiresAt;
+
+    @Column(name = "file_name")
+    private String fileName;
+
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    @Column(name = "size_bytes")
+    private Long sizeBytes;
+
+    /** Output in the artifact store, see {@link PdfArtifact}. */
+    @Column(name = "artifact_sha256", length = 64)
+    private String artifactSha256;
+
+    @Column(length = 2000)
+    private String error;
+}
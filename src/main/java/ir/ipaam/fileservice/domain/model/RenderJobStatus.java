@@ -0,0 +1,8 @@
+package ir.ipaam.fileservice.domain.model;
+
+public enum RenderJobStatus {
+    QUEUED,
+    RUNNING,
+    SUCCEEDED,
+    FAILED
+}
@@ -0,0 +1,23 @@
+package ir.ipaam.fileservice.domain.repository;
+
+import ir.ipaam.fileservice.domain.model.PdfArtifact;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface PdfArtifactRepository extends JpaRepository<PdfArtifact, String> {
+
+    /**
+     * Artifacts of {@code contentType} created before {@code cutoff} that no render job
+     * refers to any more.
+     */
+    @Query("""
+            SELECT a.sha256 FROM PdfArtifact a
+            WHERE a.contentType = :contentType AND a.createdAt < :cutoff
+              AND NOT EXISTS (SELECT j FROM RenderJob j WHERE j.artifactSha256 = a.sha256)
+            """)
+    List<String> findUnreferenced(@Param("contentType") String contentType, @Param("cutoff") Instant cutoff);
+}
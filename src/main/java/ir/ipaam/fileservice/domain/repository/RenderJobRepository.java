@@ -0,0 +1,52 @@
+package ir.ipaam.fileservice.domain.repository;
+
+import ir.ipaam.fileservice.domain.model.RenderJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.Optional;
+
+public interface RenderJobRepository extends JpaRepository<RenderJob, String> {
+
+    /**
+     * Locks the oldest claimable job. Rows locked by other instances are skipped rather
+     * than waited on, so any number of workers can poll the same table.
+     */
+    @Query(value = """
+            SELECT * FROM render_job
+            WHERE status = 'QUEUED'
+               OR (status = 'RUNNING' AND lease_expires_at < :now)
+            ORDER BY created_at
+            LIMIT 1
+            FOR UPDATE SKIP LOCKED
+            """, nativeQuery = true)
+    Optional<RenderJob> lockNextClaimable(@Param("now") Instant now);
+
+    /**
+     * Queues a succeeded job again, keeping its attempts, unless it has changed since its
+     * output {@code artifactSha256} was found missing. Returns the number of rows updated.
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("""
+            UPDATE RenderJob j
+            SET j.status = ir.ipaam.fileservice.domain.model.RenderJobStatus.QUEUED,
+                j.workerId = null, j.startedAt = null, j.finishedAt = null, j.leaseExpiresAt = null,
+                j.fileName = null, j.contentHash = null, j.sizeBytes = null, j.artifactSha256 = null
+            WHERE j.id = :id
+              AND j.status = ir.ipaam.fileservice.domain.model.RenderJobStatus.SUCCEEDED
+              AND j.artifactSha256 = :artifactSha256
+            """)
+    int requeueSucceeded(@Param("id") String id, @Param("artifactSha256") String artifactSha256);
+
+    @Modifying
+    @Query("""
+            DELETE FROM RenderJob j
+            WHERE j.status IN (ir.ipaam.fileservice.domain.model.RenderJobStatus.SUCCEEDED,
+                               ir.ipaam.fileservice.domain.model.RenderJobStatus.FAILED)
+              AND j.finishedAt < :cutoff
+            """)
+    int deleteFinishedBefore(@Param("cutoff") Instant cutoff);
+}
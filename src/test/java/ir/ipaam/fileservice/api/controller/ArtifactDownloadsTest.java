@@ -0,0 +1,144 @@
+package ir.ipaam.fileservice.api.controller;
+
+import ir.ipaam.fileservice.domain.model.PdfArtifact;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// next to ArtifactDownloads, which is package-private to the controllers
+class ArtifactDownloadsTest {
+
+    private static final String SHA = "ab".repeat(32);
+    private static final String CONTENT = "0123456789";
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+    private PdfArtifact artifact;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = Files.writeString(dir.resolve(SHA), CONTENT, StandardCharsets.US_ASCII);
+        artifact = new PdfArtifact();
+        artifact.setSha256(SHA);
+        artifact.setSizeBytes(CONTENT.length());
+        artifact.setContentType("application/pdf");
+    }
+
+    @Test
+    void writesTheWholeFileWithoutRange() throws IOException {
+        MockHttpServletResponse response = download(null, null);
+
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(response.getContentAsString()).isEqualTo(CONTENT);
+        assertThat(response.getContentLengthLong()).isEqualTo(10);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"" + SHA + "\"");
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getHeader(HttpHeaders.CONTENT_DISPOSITION)).contains("out.pdf");
+        assertThat(response.getContentType()).isEqualTo("application/pdf");
+    }
+
+    @Test
+    void servesASingleRange() throws IOException {
+        MockHttpServletResponse response = download("bytes=2-5", null);
+
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.PARTIAL_CONTENT.value());
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/10");
+        assertThat(response.getContentAsString()).isEqualTo("2345");
+        assertThat(response.getContentLengthLong()).isEqualTo(4);
+    }
+
+    @Test
+    void servesOpenEndedAndSuffixRanges() throws IOException {
+        MockHttpServletResponse from = download("bytes=7-", null);
+        assertThat(from.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 7-9/10");
+        assertThat(from.getContentAsString()).isEqualTo("789");
+
+        MockHttpServletResponse suffix = download("bytes=-3", null);
+        assertThat(suffix.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 7-9/10");
+        assertThat(suffix.getContentAsString()).isEqualTo("789");
+
+        MockHttpServletResponse longSuffix = download("bytes=-50", null);
+        assertThat(longSuffix.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 0-9/10");
+    }
+
+    @Test
+    void clampsTheEndToTheFile() throws IOException {
+        MockHttpServletResponse response = download("bytes=8-100", null);
+
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.PARTIAL_CONTENT.value());
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 8-9/10");
+        assertThat(response.getContentAsString()).isEqualTo("89");
+    }
+
+    @Test
+    void rejectsUnsatisfiableRangesWith416() throws IOException {
+        for (String range : new String[]{"bytes=10-", "bytes=5-2"}) {
+            MockHttpServletResponse response = download(range, null);
+
+            assertThat(response.getStatus()).as(range).isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).as(range).isEqualTo("bytes */10");
+            assertThat(response.getContentAsByteArray()).as(range).isEmpty();
+        }
+    }
+
+    @Test
+    void honoursRangeOnlyWhenIfRangeMatches() throws IOException {
+        MockHttpServletResponse current = download("bytes=0-1", "\"" + SHA + "\"");
+        assertThat(current.getStatus()).isEqualTo(HttpStatus.PARTIAL_CONTENT.value());
+        assertThat(current.getContentAsString()).isEqualTo("01");
+
+        MockHttpServletResponse stale = download("bytes=0-1", "\"" + "cd".repeat(32) + "\"");
+        assertThat(stale.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(stale.getContentAsString()).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void servesTheWholeFileForMalformedOrMultipleRanges() throws IOException {
+        for (String range : new String[]{"bytes=0-1,4-5", "bytes=-", "items=0-1", "bytes=a-b"}) {
+            MockHttpServletResponse response = download(range, null);
+
+            assertThat(response.getStatus()).as(range).isEqualTo(HttpStatus.OK.value());
+            assertThat(response.getContentAsString()).as(range).isEqualTo(CONTENT);
+        }
+    }
+
+    @Test
+    void reportsAMissingBlobAs404BeforeAnyHeader() throws IOException {
+        Files.delete(file);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertThatThrownBy(() -> ArtifactDownloads.write(artifact, file, "out.pdf",
+                new MockHttpServletRequest(), response))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND));
+        assertThat(response.getHeaderNames()).isEmpty();
+    }
+
+    private MockHttpServletResponse download(String range, String ifRange) throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        if (range != null) {
+            request.addHeader(HttpHeaders.RANGE, range);
+        }
+        if (ifRange != null) {
+            request.addHeader(HttpHeaders.IF_RANGE, ifRange);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        ArtifactDownloads.write(artifact, file, "out.pdf", request, response);
+        return response;
+    }
+}
@@ -0,0 +1,19 @@
+package ir.ipaam.fileservice.application.handler;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// next to PdfCommandHandler, whose file name helper is package-private
+class PdfCommandHandlerTest {
+
+    @Test
+    void keepsPdfCodesOutOfOtherDirectories() {
+        assertThat(PdfCommandHandler.fileNamePart("AB-123")).isEqualTo("AB-123");
+        assertThat(PdfCommandHandler.fileNamePart("../../etc/passwd")).isEqualTo("etcpasswd");
+        assertThat(PdfCommandHandler.fileNamePart("..\\..\\win.ini")).isEqualTo("win.ini");
+        assertThat(PdfCommandHandler.fileNamePart("a\r\nb\u0000c\u0085")).isEqualTo("abc");
+        assertThat(PdfCommandHandler.fileNamePart("/..")).isEqualTo("generated");
+        assertThat(PdfCommandHandler.fileNamePart(null)).isEqualTo("generated");
+    }
+}
@@ -0,0 +1,74 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.util.ContentHash;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ContentHashTest {
+
+    @Test
+    void modelKeyOrderDoesNotChangeTheHash() {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("name", "علی");
+        first.put("amount", 1250);
+        first.put("party", ordered("city", "تهران", "code", "021"));
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("party", ordered("code", "021", "city", "تهران"));
+        second.put("amount", 1250);
+        second.put("name", "علی");
+
+        assertThat(ContentHash.start().addJson(first).hex())
+                .isEqualTo(ContentHash.start().addJson(second).hex());
+    }
+
+    @Test
+    void modelValuesAndListOrderChangeTheHash() {
+        String base = ContentHash.start().addJson(Map.of("items", List.of(1, 2))).hex();
+
+        assertThat(ContentHash.start().addJson(Map.of("items", List.of(2, 1))).hex()).isNotEqualTo(base);
+        assertThat(ContentHash.start().addJson(Map.of("items", List.of(1, 2, 3))).hex()).isNotEqualTo(base);
+        assertThat(ContentHash.start().addJson(Map.of("items", List.of("1", "2"))).hex()).isNotEqualTo(base);
+    }
+
+    @Test
+    void partBoundariesAreHashed() {
+        assertThat(ContentHash.start().add("ab").add("c").hex())
+                .isNotEqualTo(ContentHash.start().add("a").add("bc").hex());
+        assertThat(ContentHash.start().add("abc").hex())
+                .isNotEqualTo(ContentHash.start().add("abc").add("").hex());
+    }
+
+    @Test
+    void nullPartsHashAsEmpty() {
+        assertThat(ContentHash.start().add((String) null).hex())
+                .isEqualTo(ContentHash.start().add("").hex())
+                .isEqualTo(ContentHash.start().add(new byte[0]).hex());
+    }
+
+    @Test
+    void isStableLowercaseSha256Hex() {
+        String hex = ContentHash.start().add("engine").addJson(Map.of("a", 1)).hex();
+
+        assertThat(hex).matches("[0-9a-f]{64}");
+        assertThat(ContentHash.start().add("engine").addJson(Map.of("a", 1)).hex()).isEqualTo(hex);
+    }
+
+    @Test
+    void rejectsModelsThatCannotBeSerialized() {
+        assertThatThrownBy(() -> ContentHash.start().addJson(new Object()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static Map<String, Object> ordered(String k1, Object v1, String k2, Object v2) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put(k1, v1);
+        map.put(k2, v2);
+        return map;
+    }
+}
@@ -0,0 +1,96 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PagePreviewTest {
+
+    private final RenderProperties.Preview limits = new RenderProperties.Preview();
+
+    @Test
+    void defaultsToTheFirstPageAsPng() {
+        PagePreview preview = PagePreview.parse(null, null, null, limits);
+
+        assertThat(preview.pages()).containsExactly(1);
+        assertThat(preview.format()).isEqualTo(PagePreview.Format.PNG);
+        assertThat(preview.dpi()).isEqualTo(limits.getDpi());
+        assertThat(preview.zipped()).isFalse();
+        assertThat(preview.extension()).isEqualTo("png");
+        assertThat(PagePreview.parse(" ", null, null, limits).pages()).containsExactly(1);
+    }
+
+    @Test
+    void readsPagesAndRangesInAscendingOrder() {
+        PagePreview preview = PagePreview.parse("5, 1-3 ,2", "png", 72, limits);
+
+        assertThat(preview.pages()).containsExactly(1, 2, 3, 5);
+        assertThat(preview.contains(4)).isFalse();
+        assertThat(preview.zipped()).isTrue();
+        assertThat(preview.extension()).isEqualTo("zip");
+        assertThat(preview).hasToString("pages=1,2,3,5;format=png;dpi=72");
+    }
+
+    @Test
+    void pdfPreviewsAreNeitherZippedNorKeyedByDpi() {
+        PagePreview preview = PagePreview.parse("2-3", " PDF ", 150, limits);
+
+        assertThat(preview.format()).isEqualTo(PagePreview.Format.PDF);
+        assertThat(preview.zipped()).isFalse();
+        assertThat(preview.extension()).isEqualTo("pdf");
+        assertThat(preview).hasToString("pages=2,3;format=pdf");
+    }
+
+    @Test
+    void equalSelectionsHaveEqualCacheKeys() {
+        assertThat(PagePreview.parse("3,1-2", null, null, limits).toString())
+                .isEqualTo(PagePreview.parse("1,2,3", "png", limits.getDpi(), limits).toString());
+    }
+
+    // open ranges need the page count, which is only known after layout
+    @ParameterizedTest
+    @ValueSource(strings = {"1-", "-3", "-", "0", "3-1", "1-2-3", "a", "1,,2", "2.5", "99999999999", "10001"})
+    void rejectsMalformedPages(String pages) {
+        assertThatThrownBy(() -> PagePreview.parse(pages, null, null, limits))
+                .isInstanceOf(InvalidPreviewException.class);
+    }
+
+    @Test
+    void acceptsTheLastAllowedPageNumber() {
+        assertThat(PagePreview.parse("10000", null, null, limits).pages()).containsExactly(10_000);
+    }
+
+    @Test
+    void limitsThePagesOfOnePreview() {
+        limits.setMaxPages(3);
+
+        assertThat(PagePreview.parse("1-3", null, null, limits).pages()).containsExactly(1, 2, 3);
+        assertThatThrownBy(() -> PagePreview.parse("1-4", null, null, limits))
+                .isInstanceOf(InvalidPreviewException.class)
+                .hasMessageContaining("at most 3 pages");
+        assertThatThrownBy(() -> PagePreview.parse("1-2,7,9", null, null, limits))
+                .isInstanceOf(InvalidPreviewException.class);
+        assertThatThrownBy(() -> PagePreview.parse("1-2147483647", null, null, limits))
+                .isInstanceOf(InvalidPreviewException.class);
+    }
+
+    @Test
+    void limitsTheResolution() {
+        assertThat(PagePreview.parse("1", "png", limits.getMaxDpi(), limits).dpi()).isEqualTo(limits.getMaxDpi());
+        assertThatThrownBy(() -> PagePreview.parse("1", "png", limits.getMaxDpi() + 1, limits))
+                .isInstanceOf(InvalidPreviewException.class);
+        assertThatThrownBy(() -> PagePreview.parse("1", "png", 0, limits))
+                .isInstanceOf(InvalidPreviewException.class);
+    }
+
+    @Test
+    void rejectsUnknownFormats() {
+        assertThatThrownBy(() -> PagePreview.parse("1", "webp", null, limits))
+                .isInstanceOf(InvalidPreviewException.class)
+                .hasMessage("format must be png or pdf");
+    }
+}
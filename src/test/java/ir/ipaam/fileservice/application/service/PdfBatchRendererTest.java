@@ -0,0 +1,130 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PdfBatchRendererTest {
+
+    private final ExecutorService renderExecutor = Executors.newFixedThreadPool(8);
+    private final AtomicInteger started = new AtomicInteger();
+    private PdfBatchRenderer renderer;
+
+    @BeforeEach
+    void setUp() {
+        RenderProperties properties = new RenderProperties();
+        properties.getBatch().setParallelism(2);
+        RenderEngine engine = new RenderEngine() {
+            @Override
+            public String name() {
+                return ContractPdfRenderer.NAME;
+            }
+
+            @Override
+            public String fingerprint(String template) {
+                return template;
+            }
+
+            @Override
+            public void render(String template, Map<String, Object> model, RenderContext ctx, OutputStream out)
+                    throws IOException {
+                started.incrementAndGet();
+                out.write(("pdf " + model.get("n")).getBytes());
+            }
+        };
+        RenderMetrics metrics = mock(RenderMetrics.class);
+        when(metrics.observer(anyString(), anyString(), anyString())).thenReturn(RenderObserver.NONE);
+        renderer = new PdfBatchRenderer(new RenderEngineRegistry(List.of(engine), renderExecutor, properties),
+                renderExecutor, metrics, properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        renderExecutor.shutdownNow();
+    }
+
+    @Test
+    void holdsAtMostAWindowOfDocumentsWhileTheClientIsSlow() throws Exception {
+        List<PdfBatchRenderer.Item> items = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            items.add(new PdfBatchRenderer.Item("doc-" + i + ".pdf", Map.of("n", i)));
+        }
+        CountDownLatch clientReads = new CountDownLatch(1);
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        OutputStream slowClient = new FilterOutputStream(zip) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                await(clientReads);
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                await(clientReads);
+                out.write(b);
+            }
+        };
+
+        Thread consumer = new Thread(() -> {
+            try {
+                renderer.renderZip(items, Duration.ofSeconds(10), slowClient);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        consumer.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (started.get() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(300);
+
+        // the two in the window, plus the one taken by the blocked consumer
+        assertThat(started.get()).isBetween(1, 3);
+
+        clientReads.countDown();
+        consumer.join(TimeUnit.SECONDS.toMillis(10));
+        assertThat(started).hasValue(10);
+        assertThat(entries(zip.toByteArray())).hasSize(10);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<String> entries(byte[] zip) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            while (in.getNextEntry() != null) {
+                names.add(new String(in.readAllBytes()));
+            }
+        }
+        return names;
+    }
+}
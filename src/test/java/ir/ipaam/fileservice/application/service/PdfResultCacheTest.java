@@ -0,0 +1,64 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PdfResultCacheTest {
+
+    private static final int KB = 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsADiskEntryBackAfterARestart() {
+        byte[] pdf = pdf(3 * KB, 'a');
+        cache(16).put("a", pdf);
+
+        PdfResultCache restarted = cache(16);
+
+        assertThat(restarted.get("a")).hasValueSatisfying(hit -> assertThat(hit).isEqualTo(pdf));
+        assertThat(restarted.diskHits()).isEqualTo(1);
+        assertThat(restarted.get("b")).isEmpty();
+    }
+
+    @Test
+    void aDiskHitKeepsItsEntryAcrossARestart() throws Exception {
+        PdfResultCache cache = cache(16);
+        cache.put("older", pdf(600 * KB, 'o'));
+        cache.put("newer", pdf(600 * KB, 'n'));
+        long now = System.currentTimeMillis();
+        Files.setLastModifiedTime(dir.resolve("older.pdf"), FileTime.fromMillis(now - 20_000));
+        Files.setLastModifiedTime(dir.resolve("newer.pdf"), FileTime.fromMillis(now - 10_000));
+
+        assertThat(cache(16).get("older")).isPresent();
+        // only one entry fits now; the one read last has to stay
+        cache(1);
+
+        assertThat(dir.resolve("older.pdf")).exists();
+        assertThat(dir.resolve("newer.pdf")).doesNotExist();
+    }
+
+    // with the heap tier off, every hit goes to disk
+    private PdfResultCache cache(long diskMaxMb) {
+        RenderProperties properties = new RenderProperties();
+        properties.getCache().setDir(dir.toString());
+        properties.getCache().setMemoryMaxMb(0);
+        properties.getCache().setDiskMaxMb(diskMaxMb);
+        return new PdfResultCache(properties);
+    }
+
+    private static byte[] pdf(int size, char fill) {
+        byte[] pdf = new byte[size];
+        Arrays.fill(pdf, (byte) fill);
+        return pdf;
+    }
+}
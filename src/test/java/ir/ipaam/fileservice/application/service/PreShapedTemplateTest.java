@@ -0,0 +1,132 @@
+package ir.ipaam.fileservice.application.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ibm.icu.text.ArabicShaping;
+import com.ibm.icu.text.ArabicShapingException;
+import com.ibm.icu.text.Bidi;
+import ir.ipaam.fileservice.application.util.ArabicTextUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** The streaming shaper and the pre-shaped templates against the shaper they replaced. */
+class PreShapedTemplateTest {
+
+    private static final Map<String, Object> MODEL = Map.of(
+            "name", "علی <رضا> & پگاه",
+            "amount", "1,250,000",
+            "note", "a > b < c",
+            "city", "چابهار"
+    );
+
+    @ParameterizedTest
+    @ValueSource(strings = {"morabehe", "mika_contract"})
+    void shapesBundledTemplatesLikePreviousShaper(String name) throws IOException {
+        String html = classpath("/" + name + "/index.html");
+
+        assertThat(ArabicTextUtils.shapeArabicText(html)).isEqualTo(previousShape(html));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"morabehe", "mika_contract"})
+    void rendersBundledTemplatesLikeSubstituteThenShape(String name) throws IOException {
+        String html = classpath("/" + name + "/index.html");
+        Map<String, Object> model = new ObjectMapper().readValue(
+                classpath("/morabehe/morabeh_inputs"), new TypeReference<>() {
+                });
+
+        assertThat(PreShapedTemplate.of(html).render(model))
+                .isEqualTo(previousShape(HtmlToPdfService.renderTemplate(html, model)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "<p>سلام > دنیا</p>",
+            "<p>a > b</p><p>پنج < شش</p>",
+            "x < y",
+            "<td title=\"a>b\">گچ</td>",
+            "<!-- a > b --><span>ژاله</span>",
+            "متن بدون تگ",
+            "<p>باز",
+            "متن<",
+            "<>",
+            ">>< <<",
+            "<p>{{name}} > {{note}}</p><b title=\"{{city}}\">{{amount}}</b>",
+            "<p>{{name}}<br/>{{city}} > ا</p>"
+    })
+    void matchesPreviousShaperAroundAngleBrackets(String html) {
+        assertThat(ArabicTextUtils.shapeArabicText(html)).isEqualTo(previousShape(html));
+        assertThat(PreShapedTemplate.of(html).render(MODEL))
+                .isEqualTo(previousShape(HtmlToPdfService.renderTemplate(html, MODEL)));
+    }
+
+    // the original shaper closed a tag at any '>' and moved a stray one ahead of its text
+    @Test
+    void leavesAGreaterThanInTextWhereItIs() {
+        assertThat(ArabicTextUtils.shapeArabicText("<p>a > b</p>")).isEqualTo("<p>a > b</p>");
+    }
+
+    private static String classpath(String path) throws IOException {
+        try (InputStream in = PreShapedTemplateTest.class.getResourceAsStream(path)) {
+            assertThat(in).as(path).isNotNull();
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    // ArabicTextUtils.shapeArabicText as user-028 left it, before the single-pass shaper, verbatim
+    private static String previousShape(String html) {
+        StringBuilder out = new StringBuilder();
+        StringBuilder textBuffer = new StringBuilder();
+        boolean inTag = false;
+
+        ArabicShaping shaper = new ArabicShaping(
+                ArabicShaping.LETTERS_SHAPE | ArabicShaping.TEXT_DIRECTION_LOGICAL
+        );
+
+        for (char c : html.toCharArray()) {
+            if (c == '<') {
+                if (textBuffer.length() > 0) {
+                    out.append(previousShaping(textBuffer.toString(), shaper));
+                    textBuffer.setLength(0);
+                }
+                inTag = true;
+                out.append(c);
+            } else if (c == '>' && inTag) {
+                inTag = false;
+                out.append(c);
+            } else if (inTag) {
+                out.append(c);
+            } else {
+                textBuffer.append(c);
+            }
+        }
+
+        if (textBuffer.length() > 0) {
+            out.append(previousShaping(textBuffer.toString(), shaper));
+        }
+
+        return out.toString();
+    }
+
+    private static String previousShaping(String text, ArabicShaping shaper) {
+        try {
+            String shaped = shaper.shape(text);
+            Bidi bidi = new Bidi(shaped, Bidi.REORDER_INVERSE_LIKE_DIRECT);
+            String reordered = bidi.writeReordered(Bidi.DO_MIRRORING);
+            return reordered.replace("گ", "\uE001")
+                    .replace("چ", "\uE002")
+                    .replace("پ", "\uE003")
+                    .replace("ژ", "\uE004");
+        } catch (ArabicShapingException e) {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RenderAdmissionControllerTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    private RenderAdmissionController admission;
+
+    @BeforeEach
+    void setUp() {
+        RenderProperties properties = new RenderProperties();
+        properties.getAdmission().setMemoryBudgetMb(4);
+        properties.getAdmission().setMaxWait(Duration.ofSeconds(30));
+        admission = new RenderAdmissionController(properties);
+    }
+
+    @Test
+    void releasesTheBudgetOnClose() {
+        try (RenderAdmissionController.Reservation reservation = admission.reserve(MB, RenderContext.unbounded())) {
+            assertThat(reservation.bytes()).isEqualTo(MB);
+            assertThat(admission.availableBytes()).isEqualTo(3 * MB);
+        }
+        assertThat(admission.availableBytes()).isEqualTo(4 * MB);
+    }
+
+    @Test
+    void aCancelledRequestStopsWaitingForBudget() {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try (RenderAdmissionController.Reservation all = admission.reserve(4 * MB, RenderContext.unbounded())) {
+            RenderContext ctx = RenderContext.withTimeout(Duration.ofSeconds(30));
+            timer.schedule(ctx::cancel, 100, TimeUnit.MILLISECONDS);
+            long start = System.nanoTime();
+
+            assertThatThrownBy(() -> admission.reserve(MB, ctx)).isInstanceOf(RenderCancelledException.class);
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+        } finally {
+            timer.shutdownNow();
+        }
+        assertThat(admission.availableBytes()).isEqualTo(4 * MB);
+    }
+
+    @Test
+    void rejectsWhenTheBudgetStaysTaken() {
+        RenderProperties properties = new RenderProperties();
+        properties.getAdmission().setMemoryBudgetMb(1);
+        properties.getAdmission().setMaxWait(Duration.ofMillis(120));
+        RenderAdmissionController small = new RenderAdmissionController(properties);
+
+        try (RenderAdmissionController.Reservation all = small.reserve(MB, RenderContext.unbounded())) {
+            assertThatThrownBy(() -> small.reserve(MB, RenderContext.unbounded()))
+                    .isInstanceOf(RenderRejectedException.class);
+        }
+    }
+
+    @Test
+    void modelTextCountsTowardsTheContractEstimate() {
+        Map<String, Object> model = Map.of(
+                "name", "علی",
+                "rows", List.of(Map.of("amount", 1250), Map.of("amount", "x".repeat(100))),
+                "missing", Map.of());
+
+        assertThat(ContractPdfRenderer.modelChars(model)).isEqualTo(3 + 4 + 100);
+        assertThat(ContractPdfRenderer.modelChars(null)).isZero();
+    }
+}
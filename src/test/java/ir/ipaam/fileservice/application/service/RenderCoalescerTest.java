@@ -0,0 +1,216 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import ir.ipaam.fileservice.domain.dto.PdfGenerationResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RenderCoalescerTest {
+
+    private static final int MB = 1024 * 1024;
+
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+    private final CountDownLatch leaderStarted = new CountDownLatch(1);
+    private final CountDownLatch leaderRelease = new CountDownLatch(1);
+    private final AtomicInteger renders = new AtomicInteger();
+    private final List<byte[]> rendered = new CopyOnWriteArrayList<>();
+    private RenderCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        RenderProperties properties = new RenderProperties();
+        properties.getCache().setMaxEntryMb(1);
+        coalescer = new RenderCoalescer(properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        leaderRelease.countDown();
+        threads.shutdownNow();
+    }
+
+    @Test
+    void leaderStreamsAndHandsOverItsBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        coalescer.stream("k", RenderContext.unbounded(), out, counted(target -> target.write(new byte[]{1, 2, 3})),
+                rendered::add);
+
+        assertThat(out.toByteArray()).containsExactly(1, 2, 3);
+        assertThat(rendered).singleElement().satisfies(bytes -> assertThat(bytes).containsExactly(1, 2, 3));
+        assertThat(renders).hasValue(1);
+        assertThat(coalescer.inFlight()).isZero();
+        assertThat(coalescer.coalesced()).isZero();
+    }
+
+    @Test
+    void waiterSharesTheLeadersBytes() throws Exception {
+        ByteArrayOutputStream leaderOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream waiterOut = new ByteArrayOutputStream();
+        Future<?> leader = lead(leaderOut, target -> target.write(new byte[]{4, 5, 6}));
+        Future<?> waiter = waitBehindLeader(waiterOut, target -> target.write(new byte[]{9}));
+
+        leaderRelease.countDown();
+        leader.get(10, TimeUnit.SECONDS);
+        waiter.get(10, TimeUnit.SECONDS);
+
+        assertThat(leaderOut.toByteArray()).containsExactly(4, 5, 6);
+        assertThat(waiterOut.toByteArray()).containsExactly(4, 5, 6);
+        assertThat(renders).hasValue(1);
+        assertThat(rendered).hasSize(1);
+        assertThat(coalescer.coalesced()).isEqualTo(1);
+        assertThat(coalescer.inFlight()).isZero();
+    }
+
+    @Test
+    void waiterRendersItselfWhenTheResultIsTooLargeToShare() throws Exception {
+        byte[] large = new byte[MB + 1];
+        Arrays.fill(large, (byte) 7);
+        ByteArrayOutputStream leaderOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream waiterOut = new ByteArrayOutputStream();
+        Future<?> leader = lead(leaderOut, target -> {
+            target.write(large, 0, MB);
+            target.write(large, MB, 1);
+        });
+        Future<?> waiter = waitBehindLeader(waiterOut, target -> target.write(large));
+
+        leaderRelease.countDown();
+        leader.get(10, TimeUnit.SECONDS);
+        waiter.get(10, TimeUnit.SECONDS);
+
+        assertThat(leaderOut.toByteArray()).isEqualTo(large);
+        assertThat(waiterOut.toByteArray()).isEqualTo(large);
+        assertThat(renders).hasValue(2);
+        assertThat(rendered).isEmpty();
+        assertThat(coalescer.coalesced()).isZero();
+    }
+
+    @Test
+    void waiterSharesTheLeadersFailure() throws Exception {
+        Future<?> leader = lead(new ByteArrayOutputStream(), target -> {
+            throw new TemplateNotFoundException("broken");
+        });
+        Future<?> waiter = waitBehindLeader(new ByteArrayOutputStream(), target -> target.write(1));
+
+        leaderRelease.countDown();
+
+        assertThatThrownBy(() -> leader.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(TemplateNotFoundException.class);
+        assertThatThrownBy(() -> waiter.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .cause().isInstanceOf(TemplateNotFoundException.class).hasMessage("broken");
+        assertThat(renders).hasValue(1);
+        assertThat(coalescer.inFlight()).isZero();
+    }
+
+    @Test
+    void waiterRendersItselfWhenTheLeaderIsCancelled() throws Exception {
+        ByteArrayOutputStream waiterOut = new ByteArrayOutputStream();
+        Future<?> leader = lead(new ByteArrayOutputStream(), target -> {
+            throw new RenderCancelledException("client went away");
+        });
+        Future<?> waiter = waitBehindLeader(waiterOut, target -> target.write(new byte[]{8}));
+
+        leaderRelease.countDown();
+
+        assertThatThrownBy(() -> leader.get(10, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(RenderCancelledException.class);
+        waiter.get(10, TimeUnit.SECONDS);
+        assertThat(waiterOut.toByteArray()).containsExactly(8);
+        assertThat(renders).hasValue(2);
+    }
+
+    @Test
+    void waiterGivesUpAtItsOwnDeadline() throws Exception {
+        Future<?> leader = lead(new ByteArrayOutputStream(), target -> target.write(1));
+        Future<?> waiter = waitBehindLeader(RenderContext.withTimeout(Duration.ofMillis(200)),
+                new ByteArrayOutputStream(), target -> target.write(2));
+
+        assertThatThrownBy(() -> waiter.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .cause().isInstanceOf(RenderCancelledException.class).hasMessage("Render deadline exceeded");
+        assertThat(leader).isNotDone();
+        assertThat(renders).hasValue(1);
+    }
+
+    @Test
+    void aCancelledWaiterStopsWaiting() throws Exception {
+        lead(new ByteArrayOutputStream(), target -> target.write(1));
+        RenderContext ctx = RenderContext.unbounded();
+        Future<?> waiter = waitBehindLeader(ctx, new ByteArrayOutputStream(), target -> target.write(2));
+
+        ctx.cancel();
+
+        assertThatThrownBy(() -> waiter.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .cause().isInstanceOf(RenderCancelledException.class).hasMessage("Render cancelled");
+        assertThat(renders).hasValue(1);
+    }
+
+    // Starts the render of key "k", which holds it until leaderRelease is counted down
+    private Future<?> lead(ByteArrayOutputStream out, PdfGenerationResult.Body body) throws InterruptedException {
+        Future<?> leader = threads.submit(() -> {
+            coalescer.stream("k", RenderContext.unbounded(), out, counted(target -> {
+                leaderStarted.countDown();
+                try {
+                    leaderRelease.await();
+                } catch (InterruptedException e) {
+                    throw new RenderCancelledException("interrupted");
+                }
+                body.writeTo(target);
+            }), rendered::add);
+            return null;
+        });
+        assertThat(leaderStarted.await(10, TimeUnit.SECONDS)).isTrue();
+        return leader;
+    }
+
+    private Future<?> waitBehindLeader(ByteArrayOutputStream out, PdfGenerationResult.Body body)
+            throws InterruptedException {
+        return waitBehindLeader(RenderContext.unbounded(), out, body);
+    }
+
+    // Requests key "k" on another thread and returns once that thread is parked on the leader
+    private Future<?> waitBehindLeader(RenderContext ctx, ByteArrayOutputStream out, PdfGenerationResult.Body body)
+            throws InterruptedException {
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        Future<?> waiter = threads.submit(() -> {
+            thread.set(Thread.currentThread());
+            coalescer.stream("k", ctx, out, counted(body), rendered::add);
+            return null;
+        });
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (thread.get() == null || thread.get().getState() != Thread.State.TIMED_WAITING) {
+            assertThat(System.nanoTime()).as("waiter parked in time").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+        return waiter;
+    }
+
+    private PdfGenerationResult.Body counted(PdfGenerationResult.Body body) {
+        return out -> {
+            renders.incrementAndGet();
+            body.writeTo(out);
+        };
+    }
+}
@@ -0,0 +1,232 @@
+package ir.ipaam.fileservice.application.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import ir.ipaam.fileservice.domain.command.GeneratePdfFromTemplateCommand;
+import ir.ipaam.fileservice.domain.dto.PdfGenerationResult;
+import ir.ipaam.fileservice.domain.event.PdfCreatedEvent;
+import ir.ipaam.fileservice.domain.model.PdfArtifact;
+import ir.ipaam.fileservice.domain.model.RenderJob;
+import ir.ipaam.fileservice.domain.model.RenderJobStatus;
+import ir.ipaam.fileservice.domain.repository.RenderJobRepository;
+import org.axonframework.eventhandling.gateway.EventGateway;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RenderJobServiceTest {
+
+    private final RenderJobRepository repository = mock(RenderJobRepository.class);
+    private final PdfArtifactStore artifactStore = mock(PdfArtifactStore.class);
+    private final EventGateway eventGateway = mock(EventGateway.class);
+    private final RenderProperties properties = new RenderProperties();
+    private RenderJobService service;
+
+    @BeforeEach
+    void setUp() {
+        properties.setTimeout(Duration.ofSeconds(60));
+        properties.getJobs().setMaxAttempts(3);
+        when(repository.save(any(RenderJob.class))).thenAnswer(call -> call.getArgument(0));
+        when(repository.saveAndFlush(any(RenderJob.class))).thenAnswer(call -> call.getArgument(0));
+        service = new RenderJobService(repository, artifactStore, new ObjectMapper(), eventGateway, properties);
+    }
+
+    @Test
+    void claimsNothingWhenNoJobIsClaimable() {
+        when(repository.lockNextClaimable(any())).thenReturn(Optional.empty());
+
+        assertThat(service.claim("worker-1")).isEmpty();
+    }
+
+    @Test
+    void claimStartsAnAttemptUnderALease() {
+        RenderJob queued = job("a", RenderJobStatus.QUEUED, 0);
+        when(repository.lockNextClaimable(any())).thenReturn(Optional.of(queued));
+        Instant before = Instant.now();
+
+        RenderJob claimed = service.claim("worker-1").orElseThrow();
+
+        assertThat(claimed.getStatus()).isEqualTo(RenderJobStatus.RUNNING);
+        assertThat(claimed.getAttempts()).isEqualTo(1);
+        assertThat(claimed.getWorkerId()).isEqualTo("worker-1");
+        assertThat(claimed.getStartedAt()).isBetween(before, Instant.now());
+        // the render deadline plus a margin, so a slow but live worker keeps its job
+        assertThat(claimed.getLeaseExpiresAt()).isEqualTo(claimed.getStartedAt().plusSeconds(90));
+        verify(repository).save(queued);
+    }
+
+    @Test
+    void claimTakesOverAnExpiredLease() {
+        RenderJob abandoned = job("a", RenderJobStatus.RUNNING, 1);
+        abandoned.setWorkerId("worker-dead");
+        abandoned.setLeaseExpiresAt(Instant.now().minusSeconds(5));
+        when(repository.lockNextClaimable(any())).thenReturn(Optional.of(abandoned));
+
+        RenderJob claimed = service.claim("worker-2").orElseThrow();
+
+        assertThat(claimed.getAttempts()).isEqualTo(2);
+        assertThat(claimed.getWorkerId()).isEqualTo("worker-2");
+        assertThat(claimed.getLeaseExpiresAt()).isAfter(Instant.now());
+    }
+
+    @Test
+    void claimFailsJobsOutOfAttemptsAndMovesOn() {
+        RenderJob exhausted = job("a", RenderJobStatus.RUNNING, 3);
+        RenderJob next = job("b", RenderJobStatus.QUEUED, 0);
+        when(repository.lockNextClaimable(any())).thenReturn(Optional.of(exhausted), Optional.of(next));
+
+        RenderJob claimed = service.claim("worker-1").orElseThrow();
+
+        assertThat(claimed.getId()).isEqualTo("b");
+        assertThat(exhausted.getStatus()).isEqualTo(RenderJobStatus.FAILED);
+        assertThat(exhausted.getFinishedAt()).isNotNull();
+        assertThat(exhausted.getError()).isEqualTo("Abandoned after 3 attempts");
+        assertThat(exhausted.getAttempts()).isEqualTo(3);
+        // flushed, so the next lock query no longer sees it as claimable
+        verify(repository).saveAndFlush(exhausted);
+    }
+
+    @Test
+    void claimReturnsNothingWhenEveryJobIsOutOfAttempts() {
+        RenderJob exhausted = job("a", RenderJobStatus.RUNNING, 4);
+        when(repository.lockNextClaimable(any())).thenReturn(Optional.of(exhausted), Optional.empty());
+
+        assertThat(service.claim("worker-1")).isEmpty();
+        assertThat(exhausted.getStatus()).isEqualTo(RenderJobStatus.FAILED);
+    }
+
+    @Test
+    void completeRecordsTheOutputAndPublishesTheEvent() {
+        RenderJob claimed = job("a", RenderJobStatus.RUNNING, 1);
+        when(repository.findById("a")).thenReturn(Optional.of(claimed));
+
+        service.complete(claimed, PdfGenerationResult.streamed("out.pdf", "etag", out -> {
+        }), artifact("ab".repeat(32), 42));
+
+        assertThat(claimed.getStatus()).isEqualTo(RenderJobStatus.SUCCEEDED);
+        assertThat(claimed.getLeaseExpiresAt()).isNull();
+        assertThat(claimed.getArtifactSha256()).isEqualTo("ab".repeat(32));
+        assertThat(claimed.getSizeBytes()).isEqualTo(42);
+        verify(eventGateway).publish(isA(PdfCreatedEvent.class));
+    }
+
+    @Test
+    void anAttemptThatLostItsLeaseCannotRecordAnOutcome() {
+        RenderJob stale = job("a", RenderJobStatus.RUNNING, 1);
+        RenderJob current = job("a", RenderJobStatus.RUNNING, 2);
+        when(repository.findById("a")).thenReturn(Optional.of(current));
+
+        service.complete(stale, PdfGenerationResult.streamed("out.pdf", "etag", out -> {
+        }), artifact("ab".repeat(32), 42));
+        service.fail(stale, new IllegalStateException("late"));
+
+        assertThat(current.getStatus()).isEqualTo(RenderJobStatus.RUNNING);
+        verify(repository, never()).save(any(RenderJob.class));
+        verify(eventGateway, never()).publish(any(Object.class));
+    }
+
+    @Test
+    void failRecordsATruncatedError() {
+        RenderJob claimed = job("a", RenderJobStatus.RUNNING, 1);
+        when(repository.findById("a")).thenReturn(Optional.of(claimed));
+
+        service.fail(claimed, new IllegalStateException("x".repeat(5000)));
+
+        assertThat(claimed.getStatus()).isEqualTo(RenderJobStatus.FAILED);
+        assertThat(claimed.getError()).startsWith("IllegalStateException: ").hasSize(2000);
+    }
+
+    @Test
+    void lookingUpAJobWhoseOutputIsGoneLeavesItAlone() {
+        RenderJob succeeded = job("a", RenderJobStatus.SUCCEEDED, 2);
+        succeeded.setArtifactSha256("ab".repeat(32));
+        when(repository.findById("a")).thenReturn(Optional.of(succeeded));
+        when(artifactStore.find("ab".repeat(32))).thenReturn(Optional.empty());
+
+        RenderJob found = service.find("a").orElseThrow();
+
+        assertThat(service.isServable(found)).isFalse();
+        assertThat(found.getStatus()).isEqualTo(RenderJobStatus.SUCCEEDED);
+        assertThat(found.getAttempts()).isEqualTo(2);
+        verify(repository, never()).save(any(RenderJob.class));
+        verify(repository, never()).requeueSucceeded(any(), any());
+    }
+
+    @Test
+    void servesASucceededJobWhoseOutputIsAvailable() {
+        RenderJob succeeded = job("a", RenderJobStatus.SUCCEEDED, 1);
+        PdfArtifact artifact = artifact("ab".repeat(32), 42);
+        succeeded.setArtifactSha256(artifact.getSha256());
+        when(artifactStore.find(artifact.getSha256())).thenReturn(Optional.of(artifact));
+        when(artifactStore.isAvailable(artifact)).thenReturn(true);
+
+        assertThat(service.isServable(succeeded)).isTrue();
+        assertThat(service.isServable(job("b", RenderJobStatus.RUNNING, 1))).isFalse();
+    }
+
+    @Test
+    void rerenderQueuesTheJobAndKeepsItsAttempts() {
+        RenderJob succeeded = job("a", RenderJobStatus.SUCCEEDED, 2);
+        succeeded.setArtifactSha256("ab".repeat(32));
+        RenderJob queued = job("a", RenderJobStatus.QUEUED, 2);
+        when(repository.requeueSucceeded("a", "ab".repeat(32))).thenReturn(1);
+        when(repository.findById("a")).thenReturn(Optional.of(queued));
+
+        RenderJob rerendered = service.rerender(succeeded);
+
+        assertThat(rerendered.getStatus()).isEqualTo(RenderJobStatus.QUEUED);
+        assertThat(rerendered.getAttempts()).isEqualTo(2);
+    }
+
+    @Test
+    void aRerenderedJobStillStopsAtMaxAttempts() {
+        RenderJob requeued = job("a", RenderJobStatus.QUEUED, 3);
+        when(repository.lockNextClaimable(any())).thenReturn(Optional.of(requeued), Optional.empty());
+
+        assertThat(service.claim("worker-1")).isEmpty();
+        assertThat(requeued.getStatus()).isEqualTo(RenderJobStatus.FAILED);
+    }
+
+    @Test
+    void storesAndRestoresJobCommands() throws Exception {
+        RenderJob job = service.submit(new GeneratePdfFromTemplateCommand("morabehe", Map.of("name", "علی")));
+
+        assertThat(job.getStatus()).isEqualTo(RenderJobStatus.QUEUED);
+        assertThat(service.command(job))
+                .isEqualTo(new GeneratePdfFromTemplateCommand("morabehe", Map.of("name", "علی")));
+        assertThatThrownBy(() -> service.submit("not a command"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static RenderJob job(String id, RenderJobStatus status, int attempts) {
+        RenderJob job = new RenderJob();
+        job.setId(id);
+        job.setStatus(status);
+        job.setAttempts(attempts);
+        job.setCommandType(GeneratePdfFromTemplateCommand.class.getSimpleName());
+        job.setPayload("{}");
+        job.setCreatedAt(Instant.now().minusSeconds(60));
+        return job;
+    }
+
+    private static PdfArtifact artifact(String sha256, long size) {
+        PdfArtifact artifact = new PdfArtifact();
+        artifact.setSha256(sha256);
+        artifact.setSizeBytes(size);
+        artifact.setContentType("application/pdf");
+        return artifact;
+    }
+}
@@ -0,0 +1,124 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import ir.ipaam.fileservice.domain.model.PdfArtifact;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TemplateRegistryTest {
+
+    private static final String ID = "ab".repeat(32);
+
+    @TempDir
+    Path dir;
+
+    private final PdfArtifactStore artifactStore = mock(PdfArtifactStore.class);
+    private final ExecutorService renderExecutor = Executors.newSingleThreadExecutor();
+    private TemplateRegistry registry;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        RenderProperties properties = new RenderProperties();
+        properties.getZip().setScratchDir(Files.createDirectories(dir.resolve("scratch")).toString());
+        registry = new TemplateRegistry(artifactStore, new ZipIngestor(properties), renderExecutor,
+                mock(ResourceCache.class), properties);
+
+        PdfArtifact artifact = new PdfArtifact();
+        artifact.setSha256(ID);
+        artifact.setContentType(TemplateRegistry.CONTENT_TYPE);
+        when(artifactStore.find(ID)).thenReturn(Optional.of(artifact));
+        when(artifactStore.isAvailable(artifact)).thenReturn(true);
+        when(artifactStore.path(ID)).thenReturn(dir.resolve(ID));
+    }
+
+    @AfterEach
+    void tearDown() {
+        renderExecutor.shutdownNow();
+    }
+
+    @Test
+    void rejectsABundleWithoutHtmlBeforeStoringIt() throws IOException {
+        assertThatThrownBy(() -> registry.register(zip("style.css", "p { color: red }")))
+                .isInstanceOf(InvalidZipException.class)
+                .hasMessage("No HTML file found in ZIP");
+        verify(artifactStore, never()).store(any(InputStream.class), anyString());
+    }
+
+    @Test
+    void rejectsAnEntryOutsideTheBundleBeforeStoringIt() throws IOException {
+        assertThatThrownBy(() -> registry.register(zip("../index.html", "<p>x</p>")))
+                .isInstanceOf(InvalidZipException.class);
+        verify(artifactStore, never()).store(any(InputStream.class), anyString());
+    }
+
+    @Test
+    void lookingUpAStoredTemplateDoesNotCompileIt() {
+        assertThat(registry.find(ID)).get()
+                .extracting(TemplateRegistry.Registration::status).isEqualTo(TemplateRegistry.Status.STORED);
+        verify(artifactStore, never()).path(ID);
+    }
+
+    @Test
+    void aBundleThatCannotCompileStaysFailed() throws IOException {
+        // stored before uploads were checked
+        Files.write(dir.resolve(ID), zip("style.css", "p {}").readAllBytes());
+
+        for (int i = 0; i < 3; i++) {
+            assertThatThrownBy(() -> registry.await(ID, Duration.ofSeconds(10)))
+                    .isInstanceOf(InvalidTemplateException.class)
+                    .hasMessageContaining("No HTML file found in ZIP");
+        }
+        assertThat(registry.find(ID)).get()
+                .extracting(TemplateRegistry.Registration::status).isEqualTo(TemplateRegistry.Status.FAILED);
+        verify(artifactStore, times(1)).path(ID);
+    }
+
+    @Test
+    void aBundleThatCouldNotBeReadIsCompiledAgain() {
+        // no file at the artifact's path
+        assertThatThrownBy(() -> registry.await(ID, Duration.ofSeconds(10)))
+                .isInstanceOf(InvalidTemplateException.class);
+        assertThatThrownBy(() -> registry.await(ID, Duration.ofSeconds(10)))
+                .isInstanceOf(InvalidTemplateException.class);
+
+        verify(artifactStore, times(2)).path(ID);
+        assertThat(registry.find(ID)).get()
+                .extracting(TemplateRegistry.Registration::status).isEqualTo(TemplateRegistry.Status.STORED);
+    }
+
+    private static InputStream zip(String name, String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry(name));
+            zip.write(content.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+}
@@ -0,0 +1,93 @@
+package ir.ipaam.fileservice.application.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ZipBundleTest {
+
+    @Test
+    void normalizeCollapsesDotSegments() {
+        assertThat(ZipBundle.normalize("a/./b//c")).isEqualTo("a/b/c");
+        assertThat(ZipBundle.normalize("a/b/../c")).isEqualTo("a/c");
+        assertThat(ZipBundle.normalize("/a/b/")).isEqualTo("a/b");
+        assertThat(ZipBundle.normalize("a/..")).isEmpty();
+    }
+
+    @Test
+    void normalizeRejectsPathsAboveTheRoot() {
+        assertThat(ZipBundle.normalize("..")).isNull();
+        assertThat(ZipBundle.normalize("a/../../b")).isNull();
+        assertThat(ZipBundle.normalize("./../etc/passwd")).isNull();
+    }
+
+    @Test
+    void resolvesAgainstTheReferringDirectory() throws IOException {
+        assertThat(ZipBundle.resolve("pages/", "img/logo.png")).isEqualTo("pages/img/logo.png");
+        assertThat(ZipBundle.resolve("pages/", "../css/site.css")).isEqualTo("css/site.css");
+        assertThat(ZipBundle.resolve("pages/", "/img/logo.png")).isEqualTo("img/logo.png");
+        assertThat(ZipBundle.resolve("pages/", "img\\logo.png")).isEqualTo("pages/img/logo.png");
+    }
+
+    @Test
+    void refusesReferencesOutsideTheArchive() {
+        assertThatThrownBy(() -> ZipBundle.resolve("", "../secret.txt"))
+                .isInstanceOf(FileNotFoundException.class);
+        assertThatThrownBy(() -> ZipBundle.resolve("pages/", "../../secret.txt"))
+                .isInstanceOf(FileNotFoundException.class);
+        assertThatThrownBy(() -> ZipBundle.resolve("", "file:/etc/passwd"))
+                .isInstanceOf(FileNotFoundException.class);
+        assertThatThrownBy(() -> ZipBundle.resolve("", "http://example.com/logo.png"))
+                .isInstanceOf(FileNotFoundException.class);
+    }
+
+    @Test
+    void opensEntriesRelativeToAnEntry() throws IOException {
+        try (ZipBundle bundle = bundle(() -> {
+        })) {
+            assertThat(bundle.findFirst(".HTML")).contains("pages/index.html");
+            assertThat(read(bundle.relativeTo("pages/index.html").open("../img/logo.png"))).isEqualTo("png");
+            assertThat(read(bundle.open("/pages/index.html"))).isEqualTo("<html/>");
+            assertThatThrownBy(() -> bundle.open("missing.png")).isInstanceOf(FileNotFoundException.class);
+        }
+    }
+
+    @Test
+    void releasesOnceAndRefusesReadsAfterClose() {
+        AtomicInteger releases = new AtomicInteger();
+        ZipBundle bundle = bundle(releases::incrementAndGet);
+
+        bundle.close();
+        bundle.close();
+
+        assertThat(releases).hasValue(1);
+        assertThatThrownBy(() -> bundle.read("img/logo.png")).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static ZipBundle bundle(Runnable release) {
+        Map<String, ZipBundle.Entry> entries = new LinkedHashMap<>();
+        entries.put("pages/index.html", entry("pages/index.html", "<html/>"));
+        entries.put("img/logo.png", entry("img/logo.png", "png"));
+        return new ZipBundle(entries, "hash", release);
+    }
+
+    private static ZipBundle.Entry entry(String name, String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return new ZipBundle.Entry(name, "sha", bytes.length, bytes, null);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package ir.ipaam.fileservice.application.service;
+
+import ir.ipaam.fileservice.application.config.RenderProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ZipIngestorTest {
+
+    private static final int MB = 1024 * 1024;
+
+    @TempDir
+    Path scratch;
+
+    private RenderProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new RenderProperties();
+        properties.getZip().setSpillThresholdKb(4);
+        properties.getZip().setMemoryMaxMb(1);
+        properties.getZip().setScratchMaxMb(2);
+        properties.getZip().setScratchDir(scratch.toString());
+    }
+
+    @Test
+    void keepsSmallEntriesOnTheHeapAndSpillsLargeOnes() throws IOException {
+        ZipIngestor ingestor = new ZipIngestor(properties);
+        byte[] image = filled(64 * 1024, (byte) 7);
+
+        try (ZipBundle bundle = ingestor.ingest(zip(Map.of(
+                "index.html", "<html/>".getBytes(StandardCharsets.UTF_8),
+                "img/big.png", image)))) {
+            assertThat(bundle.read("index.html")).asString(StandardCharsets.UTF_8).isEqualTo("<html/>");
+            assertThat(bundle.read("img/big.png")).isEqualTo(image);
+            assertThat(ingestor.scratchUsed()).isEqualTo(image.length);
+            assertThat(scratch).isNotEmptyDirectory();
+        }
+
+        assertThat(ingestor.scratchUsed()).isZero();
+        assertThat(scratch).isEmptyDirectory();
+    }
+
+    @Test
+    void normalizesEntryNames() throws IOException {
+        ZipIngestor ingestor = new ZipIngestor(properties);
+
+        try (ZipBundle bundle = ingestor.ingest(zip(Map.of("pages\\./index.html", new byte[]{1})))) {
+            assertThat(bundle.read("pages/index.html")).containsExactly(1);
+        }
+    }
+
+    @Test
+    void rejectsEntriesOutsideTheArchiveRoot() {
+        ZipIngestor ingestor = new ZipIngestor(properties);
+
+        assertThatThrownBy(() -> ingestor.ingest(zip(Map.of("../evil.html", new byte[]{1}))))
+                .isInstanceOf(InvalidZipException.class);
+    }
+
+    @Test
+    void rejectsMarkupBeyondTheHeapBudget() {
+        ZipIngestor ingestor = new ZipIngestor(properties);
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("img/big.png", filled(64 * 1024, (byte) 1));
+        entries.put("index.html", filled(MB + 1, (byte) 'a'));
+
+        assertThatThrownBy(() -> ingestor.ingest(zip(entries)))
+                .isInstanceOf(InvalidZipException.class)
+                .hasMessageContaining("index.html");
+        assertThat(ingestor.scratchUsed()).isZero();
+        assertThat(scratch).isEmptyDirectory();
+    }
+
+    @Test
+    void rejectsUploadsWhenTheScratchAreaIsFull() {
+        ZipIngestor ingestor = new ZipIngestor(properties);
+
+        assertThatThrownBy(() -> ingestor.ingest(zip(Map.of("font.ttf", filled(3 * MB, (byte) 2)))))
+                .isInstanceOf(RenderRejectedException.class);
+        assertThat(ingestor.scratchUsed()).isZero();
+        assertThat(scratch).isEmptyDirectory();
+    }
+
+    @Test
+    void contentHashIgnoresArchiveOrder() throws IOException {
+        ZipIngestor ingestor = new ZipIngestor(properties);
+        Map<String, byte[]> forward = new LinkedHashMap<>();
+        forward.put("index.html", "<html/>".getBytes(StandardCharsets.UTF_8));
+        forward.put("style.css", "p {}".getBytes(StandardCharsets.UTF_8));
+        Map<String, byte[]> backward = new LinkedHashMap<>();
+        backward.put("style.css", forward.get("style.css"));
+        backward.put("index.html", forward.get("index.html"));
+
+        try (ZipBundle first = ingestor.ingest(zip(forward));
+             ZipBundle second = ingestor.ingest(zip(backward));
+             ZipBundle changed = ingestor.ingest(zip(Map.of("index.html", new byte[]{1})))) {
+            assertThat(first.contentHash()).isEqualTo(second.contentHash());
+            assertThat(first.contentHash()).isNotEqualTo(changed.contentHash());
+        }
+    }
+
+    @Test
+    void clearsSpillsOfAPreviousRunAtStartup() throws IOException {
+        Files.write(scratch.resolve("entry-stale.bin"), new byte[]{1});
+
+        new ZipIngestor(properties);
+
+        assertThat(scratch).isEmptyDirectory();
+    }
+
+    private static byte[] filled(int size, byte value) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, value);
+        return bytes;
+    }
+
+    private static ByteArrayInputStream zip(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+}